@@ -41,6 +41,10 @@ public class A3AgentCommunicationPublicSpace {
     public static void main(String[] args) throws Exception {
         final Environment env = new Environment();
 
+        // digest of the data, e.g. SHA-256 or, from BlakeProvider, BLAKE3
+        BlakeProvider.install();
+        final String digestName = args.length > 0 ? args[0] : "SHA-256";
+
         // Create a ChaCha20 key that is used by Alice and the public-space
         final Key key_alice_public = KeyGenerator.getInstance("ChaCha20").generateKey();
 
@@ -63,7 +67,7 @@ public class A3AgentCommunicationPublicSpace {
 
                 // Alice then computes the digest of the data and sends the digest to public-space
 
-                final MessageDigest digestAlgorithm = MessageDigest.getInstance("SHA-256");
+                final MessageDigest digestAlgorithm = MessageDigest.getInstance(digestName);
                 final byte[] digest = digestAlgorithm.digest(data);
                 print("Message digest: %s", hex(digest));
                 print("Message : %s", hex(Arrays.copyOf(data, 10)));
@@ -110,12 +114,12 @@ public class A3AgentCommunicationPublicSpace {
         env.add(new Agent("bob") {
             @Override
             public void task() throws Exception {
-                // Receive the data from Alice and compute the digest over it using SHA-256
+                // Receive the data from Alice and compute the digest over it
                 final byte[] data_received = receive("alice");
                 final byte[] data = Arrays.copyOf(data_received, data_received.length);
 //                data[0] = 69;
 
-                final MessageDigest digestAlgorithm = MessageDigest.getInstance("SHA-256");
+                final MessageDigest digestAlgorithm = MessageDigest.getInstance(digestName);
                 final byte[] digest_computed = digestAlgorithm.digest(data);
                 print("Message digest computed: %s", hex(digest_computed));
                 print("Message : %s", hex(Arrays.copyOf(data, 10)));
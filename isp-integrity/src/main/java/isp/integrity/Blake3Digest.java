@@ -0,0 +1,367 @@
+package isp.integrity;
+
+import java.security.MessageDigestSpi;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BLAKE3 (hash mode, 256-bit output) as a {@link MessageDigestSpi}, registered by
+ * {@link BlakeProvider} as {@code BLAKE3}.
+ * <p>
+ * BLAKE3 splits the input into 1 KiB chunks and combines their chaining values in a binary
+ * tree. Whole subtrees are independent of each other, so when a single update brings in at
+ * least {@link #PARALLEL_CHUNKS} complete chunks, they are hashed as subtrees on the
+ * common fork-join pool and only the subtree roots are pushed onto the chaining-value stack.
+ */
+public class Blake3Digest extends MessageDigestSpi implements Cloneable {
+    public static final int OUT_BYTES = 32;
+    public static final int CHUNK_BYTES = 1024;
+
+    /**
+     * Smallest number of chunks (and the size of a leaf task) worth hashing in parallel.
+     */
+    public static final int PARALLEL_CHUNKS = 64;
+
+    private static final int BLOCK_BYTES = 64;
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 2;
+    private static final int PARENT = 4;
+    private static final int ROOT = 8;
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    /**
+     * Message word order for each of the seven rounds: the message permutation applied 0 to 6 times.
+     */
+    private static final byte[][] SCHEDULE = new byte[7][16];
+
+    static {
+        final byte[] permutation = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+        for (byte i = 0; i < 16; i++)
+            SCHEDULE[0][i] = i;
+        for (int r = 1; r < 7; r++)
+            for (int i = 0; i < 16; i++)
+                SCHEDULE[r][i] = SCHEDULE[r - 1][permutation[i]];
+    }
+
+    // current chunk
+    private int[] cv = new int[8];
+    private byte[] block = new byte[BLOCK_BYTES];
+    private int blockLength;
+    private int blocksCompressed;
+    private long chunkCounter;
+
+    // chaining values of completed subtrees, one per set bit of chunkCounter
+    private int[][] stack = new int[54][];
+    private int stackLength;
+
+    private int[] words = new int[16];
+
+    public Blake3Digest() {
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return OUT_BYTES;
+    }
+
+    @Override
+    protected void engineReset() {
+        System.arraycopy(IV, 0, cv, 0, 8);
+        blockLength = 0;
+        blocksCompressed = 0;
+        chunkCounter = 0;
+        stackLength = 0;
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, int offset, int length) {
+        while (length > 0) {
+            // a chunk is only finished once more input follows: the last one gets the ROOT flag
+            if (chunkLength() == CHUNK_BYTES) {
+                finishChunk();
+            }
+
+            if (chunkLength() == 0 && length > PARALLEL_CHUNKS * CHUNK_BYTES) {
+                // largest aligned subtree that still leaves some input for the final chunk
+                long chunks = Long.highestOneBit((length - 1) / CHUNK_BYTES);
+                while (chunkCounter % chunks != 0)
+                    chunks >>>= 1;
+                if (chunks >= PARALLEL_CHUNKS) {
+                    final int[] subtree = new Subtree(input, offset, (int) chunks, chunkCounter).invoke();
+                    pushSubtree(subtree, chunks);
+                    offset += chunks * CHUNK_BYTES;
+                    length -= chunks * CHUNK_BYTES;
+                    continue;
+                }
+            }
+
+            if (blockLength == BLOCK_BYTES) {
+                compressBlock(block, 0);
+                blockLength = 0;
+            }
+            if (blockLength == 0 && length > BLOCK_BYTES && blocksCompressed < CHUNK_BYTES / BLOCK_BYTES - 1) {
+                // a full block that is not the last one of the chunk: compress it in place
+                compressBlock(input, offset);
+                offset += BLOCK_BYTES;
+                length -= BLOCK_BYTES;
+                continue;
+            }
+
+            final int n = Math.min(length, BLOCK_BYTES - blockLength);
+            System.arraycopy(input, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        for (int i = blockLength; i < BLOCK_BYTES; i++)
+            block[i] = 0;
+        toWords(block, 0, words);
+
+        int[] chaining = cv;
+        int[] w = words;
+        long counter = chunkCounter;
+        int len = blockLength;
+        int flags = (blocksCompressed == 0 ? CHUNK_START : 0) | CHUNK_END;
+
+        // fold the stack from the top: each step produces the right child of the next parent
+        for (int i = stackLength - 1; i >= 0; i--) {
+            final int[] right = new int[8];
+            compress(chaining, w, counter, len, flags, right);
+            w = new int[16];
+            System.arraycopy(stack[i], 0, w, 0, 8);
+            System.arraycopy(right, 0, w, 8, 8);
+            chaining = IV;
+            counter = 0;
+            len = BLOCK_BYTES;
+            flags = PARENT;
+        }
+
+        final int[] root = new int[8];
+        compress(chaining, w, counter, len, flags | ROOT, root);
+        final byte[] out = new byte[OUT_BYTES];
+        for (int i = 0; i < OUT_BYTES; i++)
+            out[i] = (byte) (root[i >>> 2] >>> (8 * (i & 3)));
+        engineReset();
+        return out;
+    }
+
+    private int chunkLength() {
+        return blocksCompressed * BLOCK_BYTES + blockLength;
+    }
+
+    private void compressBlock(final byte[] input, final int offset) {
+        toWords(input, offset, words);
+        compress(cv, words, chunkCounter, BLOCK_BYTES, blocksCompressed == 0 ? CHUNK_START : 0, cv);
+        blocksCompressed++;
+    }
+
+    private void finishChunk() {
+        toWords(block, 0, words);
+        final int[] chunk = new int[8];
+        compress(cv, words, chunkCounter, BLOCK_BYTES, (blocksCompressed == 0 ? CHUNK_START : 0) | CHUNK_END, chunk);
+        pushSubtree(chunk, 1);
+    }
+
+    /**
+     * Pushes the chaining value of a subtree of {@code chunks} (a power of two) chunks that
+     * starts at {@link #chunkCounter}, merging completed subtrees, and starts a new chunk.
+     */
+    private void pushSubtree(int[] subtree, final long chunks) {
+        chunkCounter += chunks;
+        for (long total = chunkCounter / chunks; (total & 1) == 0; total >>>= 1)
+            subtree = parent(stack[--stackLength], subtree);
+        stack[stackLength++] = subtree;
+
+        System.arraycopy(IV, 0, cv, 0, 8);
+        blockLength = 0;
+        blocksCompressed = 0;
+    }
+
+    private static int[] parent(final int[] left, final int[] right) {
+        final int[] w = new int[16];
+        System.arraycopy(left, 0, w, 0, 8);
+        System.arraycopy(right, 0, w, 8, 8);
+        final int[] out = new int[8];
+        compress(IV, w, 0, BLOCK_BYTES, PARENT, out);
+        return out;
+    }
+
+    /**
+     * Chaining value of a complete (non-root) chunk.
+     */
+    private static int[] chunk(final byte[] input, final int offset, final long counter) {
+        final int[] h = IV.clone();
+        final int[] w = new int[16];
+        for (int i = 0; i < CHUNK_BYTES / BLOCK_BYTES; i++) {
+            toWords(input, offset + i * BLOCK_BYTES, w);
+            final int flags = (i == 0 ? CHUNK_START : 0) | (i == CHUNK_BYTES / BLOCK_BYTES - 1 ? CHUNK_END : 0);
+            compress(h, w, counter, BLOCK_BYTES, flags, h);
+        }
+        return h;
+    }
+
+    /**
+     * Chaining value of a complete (non-root) subtree; halves are forked until they are
+     * {@link #PARALLEL_CHUNKS} chunks small.
+     */
+    private static final class Subtree extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] input;
+        private final int offset;
+        private final int chunks;
+        private final long counter;
+
+        Subtree(final byte[] input, final int offset, final int chunks, final long counter) {
+            this.input = input;
+            this.offset = offset;
+            this.chunks = chunks;
+            this.counter = counter;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (chunks <= PARALLEL_CHUNKS)
+                return sequential(offset, chunks, counter);
+
+            final int half = chunks / 2;
+            final Subtree right = new Subtree(input, offset + half * CHUNK_BYTES, half, counter + half);
+            right.fork();
+            final int[] left = new Subtree(input, offset, half, counter).compute();
+            return parent(left, right.join());
+        }
+
+        private int[] sequential(final int offset, final int chunks, final long counter) {
+            if (chunks == 1)
+                return chunk(input, offset, counter);
+            final int half = chunks / 2;
+            return parent(sequential(offset, half, counter), sequential(offset + half * CHUNK_BYTES, half, counter + half));
+        }
+    }
+
+    /**
+     * The BLAKE3 compression function; writes the first 8 output words to {@code out}
+     * (which may be {@code h}).
+     */
+    private static void compress(final int[] h, final int[] m, final long counter, final int blockLength,
+                                 final int flags, final int[] out) {
+        int v0 = h[0], v1 = h[1], v2 = h[2], v3 = h[3], v4 = h[4], v5 = h[5], v6 = h[6], v7 = h[7];
+        int v8 = IV[0], v9 = IV[1], v10 = IV[2], v11 = IV[3];
+        int v12 = (int) counter, v13 = (int) (counter >>> 32), v14 = blockLength, v15 = flags;
+
+        for (int round = 0; round < 7; round++) {
+            final byte[] s = SCHEDULE[round];
+
+            // columns
+            v0 += v4 + m[s[0]];
+            v12 = Integer.rotateRight(v12 ^ v0, 16);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 12);
+            v0 += v4 + m[s[1]];
+            v12 = Integer.rotateRight(v12 ^ v0, 8);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 7);
+
+            v1 += v5 + m[s[2]];
+            v13 = Integer.rotateRight(v13 ^ v1, 16);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 12);
+            v1 += v5 + m[s[3]];
+            v13 = Integer.rotateRight(v13 ^ v1, 8);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 7);
+
+            v2 += v6 + m[s[4]];
+            v14 = Integer.rotateRight(v14 ^ v2, 16);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 12);
+            v2 += v6 + m[s[5]];
+            v14 = Integer.rotateRight(v14 ^ v2, 8);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 7);
+
+            v3 += v7 + m[s[6]];
+            v15 = Integer.rotateRight(v15 ^ v3, 16);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 12);
+            v3 += v7 + m[s[7]];
+            v15 = Integer.rotateRight(v15 ^ v3, 8);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 7);
+
+            // diagonals
+            v0 += v5 + m[s[8]];
+            v15 = Integer.rotateRight(v15 ^ v0, 16);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 12);
+            v0 += v5 + m[s[9]];
+            v15 = Integer.rotateRight(v15 ^ v0, 8);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 7);
+
+            v1 += v6 + m[s[10]];
+            v12 = Integer.rotateRight(v12 ^ v1, 16);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 12);
+            v1 += v6 + m[s[11]];
+            v12 = Integer.rotateRight(v12 ^ v1, 8);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 7);
+
+            v2 += v7 + m[s[12]];
+            v13 = Integer.rotateRight(v13 ^ v2, 16);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 12);
+            v2 += v7 + m[s[13]];
+            v13 = Integer.rotateRight(v13 ^ v2, 8);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 7);
+
+            v3 += v4 + m[s[14]];
+            v14 = Integer.rotateRight(v14 ^ v3, 16);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 12);
+            v3 += v4 + m[s[15]];
+            v14 = Integer.rotateRight(v14 ^ v3, 8);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 7);
+        }
+
+        out[0] = v0 ^ v8;
+        out[1] = v1 ^ v9;
+        out[2] = v2 ^ v10;
+        out[3] = v3 ^ v11;
+        out[4] = v4 ^ v12;
+        out[5] = v5 ^ v13;
+        out[6] = v6 ^ v14;
+        out[7] = v7 ^ v15;
+    }
+
+    private static void toWords(final byte[] b, final int offset, final int[] w) {
+        for (int i = 0, o = offset; i < 16; i++, o += 4)
+            w[i] = (b[o] & 0xff) | (b[o + 1] & 0xff) << 8 | (b[o + 2] & 0xff) << 16 | (b[o + 3] & 0xff) << 24;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Blake3Digest copy = (Blake3Digest) super.clone();
+        copy.cv = cv.clone();
+        copy.block = block.clone();
+        copy.stack = stack.clone();
+        copy.words = new int[16];
+        return copy;
+    }
+}
@@ -0,0 +1,36 @@
+package isp.integrity;
+
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * A JCA provider with pure-Java BLAKE2b and BLAKE3 message digests.
+ * <p>
+ * Once installed, they are used like any other digest:
+ * <pre>
+ * BlakeProvider.install();
+ * MessageDigest.getInstance("BLAKE3").digest(data);
+ * </pre>
+ * Algorithms: {@code BLAKE2b-512}, {@code BLAKE2b-256} and {@code BLAKE3} (alias {@code BLAKE3-256}).
+ */
+public final class BlakeProvider extends Provider {
+    private static final long serialVersionUID = 1L;
+
+    public static final String NAME = "ISP-BLAKE";
+
+    public BlakeProvider() {
+        super(NAME, "1.0", "Pure-Java BLAKE2b and BLAKE3 message digests");
+        put("MessageDigest.BLAKE2b-512", Blake2bDigest.Blake2b512.class.getName());
+        put("MessageDigest.BLAKE2b-256", Blake2bDigest.Blake2b256.class.getName());
+        put("MessageDigest.BLAKE3", Blake3Digest.class.getName());
+        put("Alg.Alias.MessageDigest.BLAKE3-256", "BLAKE3");
+    }
+
+    /**
+     * Adds the provider (at the lowest priority) unless it is already installed.
+     */
+    public static synchronized void install() {
+        if (Security.getProvider(NAME) == null)
+            Security.addProvider(new BlakeProvider());
+    }
+}
@@ -0,0 +1,92 @@
+package isp.integrity;
+
+import fri.isp.Agent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Compares the throughput of SHA-256 and SHA-512 with BLAKE2b and BLAKE3 from {@link BlakeProvider}
+ * on inputs from 1 KiB to 1 GiB.
+ * <p>
+ * The BLAKE implementations are first checked against published test vectors; the benchmark
+ * stops with an exception if one of them does not match.
+ * <p>
+ * Inputs up to {@link #BUFFER_SIZE} are hashed with a single call; larger inputs are fed as
+ * repeated updates of that buffer, as a file would be.
+ * Usage: {@code DigestBenchmark [max size in MiB]} (default: 1024).
+ */
+public class DigestBenchmark {
+    public static final int BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private static final String[] ALGORITHMS = {"SHA-256", "SHA-512", "BLAKE2b-512", "BLAKE3"};
+
+    public static void main(String[] args) throws Exception {
+        final long maxSize = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+        BlakeProvider.install();
+
+        // RFC 7693, appendix A
+        check("BLAKE2b-512", "abc".getBytes(StandardCharsets.US_ASCII),
+                "ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d1" +
+                        "7d87c5392aab792dc252d5de4533cc9518d38aa8dbf1925ab92386edd4009923");
+        check("BLAKE2b-256", "abc".getBytes(StandardCharsets.US_ASCII),
+                "bddd813c634239723171ef3fee98579b94964e3bb1cb3e427262c8c068d52319");
+        // BLAKE3 test vectors (input bytes 0, 1, ..., 250, 0, 1, ...); 102400 bytes take the parallel path
+        check("BLAKE3", pattern(0), "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262");
+        check("BLAKE3", pattern(1024), "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7");
+        check("BLAKE3", pattern(102400), "bc3e3d41a1146b069abffad3c0d44860cf664390afce4d9661f7902e7943e085");
+        System.out.println();
+
+        final byte[] data = new byte[BUFFER_SIZE];
+        new Random(42).nextBytes(data);
+
+        System.out.printf("%10s", "size");
+        for (String algorithm : ALGORITHMS)
+            System.out.printf(" %14s", algorithm);
+        System.out.println("   (MiB/s)");
+
+        final MessageDigest[] digests = new MessageDigest[ALGORITHMS.length];
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            digests[i] = MessageDigest.getInstance(ALGORITHMS[i]);
+            // warm-up
+            for (int j = 0; j < 8; j++)
+                hash(digests[i], data, BUFFER_SIZE);
+        }
+
+        for (long size = 1024; size <= maxSize; size *= 4) {
+            System.out.printf("%10s", size < 1024 * 1024 ? size / 1024 + " KiB" : size / (1024 * 1024) + " MiB");
+            for (MessageDigest digest : digests) {
+                // repeat small inputs so that each measurement takes at least ~200 ms
+                final long rounds = Math.max(1, 256L * 1024 * 1024 / size);
+                final long start = System.nanoTime();
+                for (long r = 0; r < rounds; r++)
+                    hash(digest, data, size);
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf(" %14.1f", rounds * size / 1048576.0 / seconds);
+            }
+            System.out.println();
+        }
+    }
+
+    private static void check(final String algorithm, final byte[] input, final String expected) throws Exception {
+        final String hex = Agent.hex(MessageDigest.getInstance(algorithm).digest(input));
+        final String name = String.format("%s(%d bytes)", algorithm, input.length);
+        if (!hex.equalsIgnoreCase(expected))
+            throw new IllegalStateException(String.format("%s: expected %s, got %s", name, expected, hex));
+        System.out.printf("%-24s OK%n", name);
+    }
+
+    private static byte[] pattern(final int length) {
+        final byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = (byte) (i % 251);
+        return b;
+    }
+
+    private static byte[] hash(final MessageDigest digest, final byte[] data, final long size) {
+        for (long done = 0; done < size; done += data.length)
+            digest.update(data, 0, (int) Math.min(data.length, size - done));
+        return digest.digest();
+    }
+}
@@ -0,0 +1,322 @@
+package isp.integrity;
+
+import fri.isp.Agent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Hashes whole directory trees with SHA-256 or SHA-512 and records the result in a manifest.
+ * <p>
+ * The tree is walked and its files are hashed in parallel on a fork-join pool: every directory
+ * is listed by a task of its own, and the attributes of a file are read by the worker that
+ * hashes it. Each worker keeps its own {@link MessageDigest} and direct read buffer. Small files
+ * are read into the buffer, large files are memory-mapped in windows of {@link #MAP_WINDOW} bytes.
+ * The size recorded for a file is the number of bytes that were hashed.
+ * <p>
+ * The manifest lists one file per line, sorted by path, so the same tree always gives
+ * the same manifest:
+ * <pre>
+ * # SHA-256
+ * &lt;hex digest&gt; &lt;size&gt; &lt;mtime ms&gt; &lt;relative path&gt;
+ * </pre>
+ * In the path, {@code %}, carriage return and line feed are written as {@code %25},
+ * {@code %0D} and {@code %0A}, so that every file takes exactly one line.
+ * Given the previous manifest, {@link #hash(Path, Manifest)} re-hashes only the files whose
+ * size or modification time changed and copies the other digests over.
+ */
+public class DirectoryDigest implements AutoCloseable {
+    public static final int BUFFER_SIZE = 1024 * 1024;
+    public static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+    public static final long MAP_WINDOW = 256 * 1024 * 1024;
+
+    /**
+     * A manifest entry: digest, size and modification time of one file.
+     */
+    public static final class Entry {
+        public final String digest;
+        public final long size;
+        public final long modified;
+
+        public Entry(final String digest, final long size, final long modified) {
+            this.digest = digest;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * Digests of all files in a tree, keyed and sorted by path relative to the root
+     * (with {@code /} as separator).
+     */
+    public static final class Manifest {
+        private final String algorithm;
+        private final SortedMap<String, Entry> entries;
+
+        public Manifest(final String algorithm, final SortedMap<String, Entry> entries) {
+            this.algorithm = algorithm;
+            this.entries = Collections.unmodifiableSortedMap(entries);
+        }
+
+        public String algorithm() {
+            return algorithm;
+        }
+
+        public SortedMap<String, Entry> entries() {
+            return entries;
+        }
+
+        public void write(final Path file) throws IOException {
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write("# " + algorithm);
+                out.newLine();
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    final Entry entry = e.getValue();
+                    out.write(String.format("%s %d %d %s", entry.digest, entry.size, entry.modified,
+                            escape(e.getKey())));
+                    out.newLine();
+                }
+            }
+        }
+
+        public static Manifest read(final Path file) throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                final String header = in.readLine();
+                if (header == null || !header.startsWith("# "))
+                    throw new IOException("Not a manifest: " + file);
+
+                final SortedMap<String, Entry> entries = new TreeMap<>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    // the path comes last and may itself contain spaces
+                    final String[] fields = line.split(" ", 4);
+                    if (fields.length != 4)
+                        throw new IOException("Malformed manifest line: " + line);
+                    entries.put(unescape(fields[3]), new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+                return new Manifest(header.substring(2), entries);
+            }
+        }
+
+        private static String escape(final String path) {
+            return path.replace("%", "%25").replace("\r", "%0D").replace("\n", "%0A");
+        }
+
+        private static String unescape(final String path) {
+            return path.replace("%0A", "\n").replace("%0D", "\r").replace("%25", "%");
+        }
+    }
+
+    private final String algorithm;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<MessageDigest> digests;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final AtomicLong hashedFiles = new AtomicLong();
+    private final AtomicLong hashedBytes = new AtomicLong();
+    private final AtomicLong reusedFiles = new AtomicLong();
+
+    /**
+     * @param algorithm digest algorithm, e.g. "SHA-256" or "SHA-512"
+     * @param threads   number of worker threads
+     */
+    public DirectoryDigest(final String algorithm, final int threads) throws GeneralSecurityException {
+        MessageDigest.getInstance(algorithm);
+        this.algorithm = algorithm;
+        this.pool = new ForkJoinPool(threads);
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Hashes every regular file below {@code root}.
+     */
+    public Manifest hash(final Path root) throws IOException {
+        return hash(root, null);
+    }
+
+    /**
+     * Hashes the regular files below {@code root}, reusing the digests from {@code previous}
+     * for files whose size and modification time did not change.
+     *
+     * @param previous earlier manifest of the same tree, or null to hash everything
+     */
+    public Manifest hash(final Path root, final Manifest previous) throws IOException {
+        final Map<String, Entry> known = previous != null && previous.algorithm().equals(algorithm)
+                ? previous.entries() : Collections.emptyMap();
+
+        try {
+            final SortedMap<String, Entry> entries = new TreeMap<>();
+            pool.submit(() -> scan(root, root, known).forEach(e -> entries.put(e.getKey(), e.getValue()))).get();
+            return new Manifest(algorithm, entries);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            // the pool may wrap the exception of the task in a copy of it
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Lists {@code dir} and hashes (or reuses) its regular files, descending into its
+     * subdirectories in parallel. Like {@link Files#walk}, it follows links to files but not
+     * links to directories.
+     */
+    private List<Map.Entry<String, Entry>> scan(final Path root, final Path dir, final Map<String, Entry> known) {
+        final List<Path> children;
+        try (Stream<Path> list = Files.list(dir)) {
+            children = list.collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return children.parallelStream().flatMap(child -> {
+            try {
+                final BasicFileAttributes link = Files.readAttributes(child, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                if (link.isDirectory())
+                    return scan(root, child, known).stream();
+                final BasicFileAttributes attributes = link.isSymbolicLink()
+                        ? Files.readAttributes(child, BasicFileAttributes.class) : link;
+                if (!attributes.isRegularFile())
+                    return Stream.empty();
+
+                final String name = relativeName(root, child);
+                final long modified = attributes.lastModifiedTime().toMillis();
+                final Entry old = known.get(name);
+                if (old != null && old.size == attributes.size() && old.modified == modified) {
+                    reusedFiles.incrementAndGet();
+                    return Stream.of(Map.entry(name, old));
+                }
+                final MessageDigest digest = digests.get();
+                final long size = digest(child, digest);
+                return Stream.of(Map.entry(name, new Entry(Agent.hex(digest.digest()), size, modified)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * Hashes a single file into this worker's digest.
+     *
+     * @return number of bytes hashed
+     */
+    private long digest(final Path file, final MessageDigest digest) throws IOException {
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length >= MAP_THRESHOLD) {
+                for (long offset = 0; offset < length; offset += MAP_WINDOW) {
+                    final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                            offset, Math.min(MAP_WINDOW, length - offset));
+                    size += window.remaining();
+                    digest.update(window);
+                }
+            } else {
+                final ByteBuffer buffer = buffers.get();
+                buffer.clear();
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    size += buffer.remaining();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        } catch (IOException e) {
+            digest.reset();
+            throw e;
+        }
+        hashedFiles.incrementAndGet();
+        hashedBytes.addAndGet(size);
+        return size;
+    }
+
+    private static String relativeName(final Path root, final Path file) {
+        final StringBuilder sb = new StringBuilder();
+        for (Path part : root.relativize(file)) {
+            if (sb.length() > 0)
+                sb.append('/');
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    public long hashedFiles() {
+        return hashedFiles.get();
+    }
+
+    public long hashedBytes() {
+        return hashedBytes.get();
+    }
+
+    public long reusedFiles() {
+        return reusedFiles.get();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Hashes a directory and writes its manifest; if the manifest already exists, only
+     * changed files are hashed.
+     * Usage: {@code DirectoryDigest <directory> [manifest] [algorithm] [threads]}
+     * (defaults: digest.manifest, SHA-256, number of cores).
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: DirectoryDigest <directory> [manifest] [algorithm] [threads]");
+            return;
+        }
+        final Path root = Paths.get(args[0]);
+        final Path manifestFile = Paths.get(args.length > 1 ? args[1] : "digest.manifest");
+        final String algorithm = args.length > 2 ? args[2] : "SHA-256";
+        final int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        final Manifest previous = Files.exists(manifestFile) ? Manifest.read(manifestFile) : null;
+        try (DirectoryDigest digest = new DirectoryDigest(algorithm, threads)) {
+            final long start = System.nanoTime();
+            final Manifest manifest = digest.hash(root, previous);
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            manifest.write(manifestFile);
+
+            System.out.printf("%d files: %d hashed (%.1f MiB), %d unchanged, %.2f s, %.1f MiB/s%n",
+                    manifest.entries().size(), digest.hashedFiles(), digest.hashedBytes() / 1048576.0,
+                    digest.reusedFiles(), seconds, digest.hashedBytes() / 1048576.0 / seconds);
+        }
+    }
+}
@@ -9,6 +9,9 @@ import java.security.NoSuchAlgorithmException;
 public class MessageDigestExample {
 
     public static void main(String[] args) throws NoSuchAlgorithmException {
+        // BLAKE2b-512, BLAKE2b-256 and BLAKE3 become available by name once the provider is installed
+        BlakeProvider.install();
+        final String algorithm = args.length > 0 ? args[0] : "SHA-256";
 
         final String message = "We would like to provide data integrity.";
 
@@ -17,7 +20,7 @@ public class MessageDigestExample {
          * Select Message Digest algorithm and get new Message Digest object instance
          * http://docs.oracle.com/javase/8/docs/technotes/guides/security/StandardNames.html
          */
-        final MessageDigest digestAlgorithm = MessageDigest.getInstance("SHA-256");
+        final MessageDigest digestAlgorithm = MessageDigest.getInstance(algorithm);
 
         /*
          * STEP 2.
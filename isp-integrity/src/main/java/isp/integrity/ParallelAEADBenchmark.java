@@ -0,0 +1,69 @@
+package isp.integrity;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how {@link SegmentedAEAD} scales with the number of threads on a payload of the
+ * size used in {@link A3AgentCommunicationPublicSpace}, for AES-GCM and ChaCha20-Poly1305.
+ * Usage: {@code ParallelAEADBenchmark [size in MiB]} (default: 200).
+ */
+public class ParallelAEADBenchmark {
+    public static final int BATCH_SEGMENTS = 64;
+
+    public static void main(String[] args) throws Exception {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 200) * 1024 * 1024;
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        final byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+
+        for (SegmentedAEAD.Algorithm algorithm : SegmentedAEAD.Algorithm.values()) {
+            final SegmentedAEAD aead = new SegmentedAEAD(algorithm, algorithm.generateKey());
+
+            // warm-up, and a check that all code paths agree on the format
+            final byte[] sequential = aead.encrypt(data);
+            if (!Arrays.equals(data, aead.decryptParallel(sequential, ForkJoinPool.commonPool()))
+                    || !Arrays.equals(data, aead.decrypt(aead.encryptParallel(data, ForkJoinPool.commonPool()))))
+                throw new IllegalStateException("Round trip failed");
+
+            long start = System.nanoTime();
+            final byte[] ct = aead.encrypt(data);
+            final double encrypt = mibPerSecond(size, start);
+            start = System.nanoTime();
+            aead.decrypt(ct);
+            System.out.printf("%-18s sequential  encrypt %7.1f MiB/s, decrypt %7.1f MiB/s%n",
+                    algorithm, encrypt, mibPerSecond(size, start));
+
+            // 1, 2, 4, ... and finally all cores
+            for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(threads * 2, cores)) {
+                final ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    start = System.nanoTime();
+                    final byte[] pct = aead.encryptParallel(data, pool);
+                    final double pe = mibPerSecond(size, start);
+                    start = System.nanoTime();
+                    aead.decryptParallel(pct, pool);
+                    final double pd = mibPerSecond(size, start);
+
+                    // batched streaming: memory bounded by BATCH_SEGMENTS segments
+                    start = System.nanoTime();
+                    aead.encrypt(new ByteArrayInputStream(data), OutputStream.nullOutputStream(), pool, BATCH_SEGMENTS);
+                    final double se = mibPerSecond(size, start);
+
+                    System.out.printf("%-18s %2d threads  encrypt %7.1f MiB/s, decrypt %7.1f MiB/s, stream encrypt %7.1f MiB/s%n",
+                            algorithm, threads, pe, pd, se);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    private static double mibPerSecond(final long bytes, final long start) {
+        return bytes / 1048576.0 / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,491 @@
+package isp.integrity;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Segmented authenticated encryption of streams (the STREAM construction of Hoang, Reyhanitabar,
+ * Rogaway and Vizar) with AES-GCM or ChaCha20-Poly1305.
+ * <p>
+ * The plaintext is cut into segments of {@code segmentSize} bytes (the last one may be shorter
+ * or even empty) and every segment is encrypted on its own with the nonce
+ * <pre>
+ *   prefix (7 B) || segment index (4 B, big-endian) || last-segment flag (1 B)
+ * </pre>
+ * where the prefix is random per stream. Segments therefore cannot be reordered, dropped or
+ * duplicated, and a stream that was cut off at a segment boundary fails because its last
+ * segment does not carry the flag. Both sides only ever hold one segment in memory, and the
+ * receiver may use each plaintext segment as soon as its tag checked out.
+ * <p>
+ * Format of an encrypted stream:
+ * <pre>
+ *   int      segment size
+ *   byte[7]  nonce prefix
+ *   segment* ciphertext with tag; all but the last are exactly segmentSize + 16 bytes
+ * </pre>
+ */
+public class SegmentedAEAD {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int TAG_LENGTH = 16;
+    public static final int PREFIX_LENGTH = 7;
+    public static final int HEADER_LENGTH = Integer.BYTES + PREFIX_LENGTH;
+
+    public enum Algorithm {
+        AES_GCM("AES/GCM/NoPadding", "AES"),
+        CHACHA20_POLY1305("ChaCha20-Poly1305", "ChaCha20");
+
+        private final String transformation;
+        private final String keyAlgorithm;
+
+        Algorithm(final String transformation, final String keyAlgorithm) {
+            this.transformation = transformation;
+            this.keyAlgorithm = keyAlgorithm;
+        }
+
+        public String transformation() {
+            return transformation;
+        }
+
+        public SecretKey generateKey() throws GeneralSecurityException {
+            return KeyGenerator.getInstance(keyAlgorithm).generateKey();
+        }
+
+        AlgorithmParameterSpec parameters(final byte[] nonce) {
+            return this == AES_GCM ? new GCMParameterSpec(TAG_LENGTH * 8, nonce) : new IvParameterSpec(nonce);
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final SecretKey key;
+    private final int segmentSize;
+    private final ThreadLocal<Worker> workers;
+
+    /**
+     * @param algorithm   AEAD to use for the segments
+     * @param key         key for that algorithm
+     * @param segmentSize plaintext bytes per segment
+     */
+    public SegmentedAEAD(final Algorithm algorithm, final SecretKey key, final int segmentSize) {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Segment size must be positive");
+        this.algorithm = algorithm;
+        this.key = key;
+        this.segmentSize = segmentSize;
+        this.workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    public SegmentedAEAD(final Algorithm algorithm, final SecretKey key) {
+        this(algorithm, key, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Nonce of segment {@code index}.
+     */
+    static byte[] nonce(final byte[] prefix, final long index, final boolean last) {
+        if (index < 0 || index > 0xffffffffL)
+            throw new IllegalStateException("Too many segments");
+        return ByteBuffer.allocate(12).put(prefix).putInt((int) index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    /**
+     * Encrypts the whole input stream.
+     */
+    public void encrypt(final InputStream in, final OutputStream out) throws IOException, GeneralSecurityException {
+        final byte[] prefix = newPrefix();
+        out.write(header(prefix));
+
+        final Cipher cipher = Cipher.getInstance(algorithm.transformation());
+        // one byte more than a segment, to find out whether the current segment is the last one
+        final byte[] pt = new byte[segmentSize + 1];
+        final byte[] ct = new byte[segmentSize + TAG_LENGTH];
+
+        int length = readFully(in, pt, 0, pt.length);
+        for (long index = 0; ; index++) {
+            final boolean last = length <= segmentSize;
+            cipher.init(Cipher.ENCRYPT_MODE, key, algorithm.parameters(nonce(prefix, index, last)));
+            final int n = cipher.doFinal(pt, 0, Math.min(length, segmentSize), ct, 0);
+            out.write(ct, 0, n);
+            if (last)
+                break;
+
+            pt[0] = pt[segmentSize];
+            length = 1 + readFully(in, pt, 1, segmentSize);
+        }
+    }
+
+    /**
+     * Decrypts a stream created by {@link #encrypt(InputStream, OutputStream)}. Plaintext is
+     * written segment by segment, each only after its tag has been verified.
+     *
+     * @throws AEADBadTagException if a segment was modified, reordered or dropped, or the
+     *                             stream was truncated
+     */
+    public void decrypt(final InputStream in, final OutputStream out) throws IOException, GeneralSecurityException {
+        final byte[] header = new byte[HEADER_LENGTH];
+        if (readFully(in, header, 0, HEADER_LENGTH) != HEADER_LENGTH)
+            throw new EOFException("Missing stream header");
+        final byte[] prefix = parseHeader(header, 0);
+
+        final Cipher cipher = Cipher.getInstance(algorithm.transformation());
+        final int ctSegment = segmentSize + TAG_LENGTH;
+        final byte[] ct = new byte[ctSegment + 1];
+        final byte[] pt = new byte[segmentSize];
+
+        int length = readFully(in, ct, 0, ct.length);
+        for (long index = 0; ; index++) {
+            final boolean last = length <= ctSegment;
+            if (length < TAG_LENGTH)
+                throw new AEADBadTagException("Truncated segment");
+            cipher.init(Cipher.DECRYPT_MODE, key, algorithm.parameters(nonce(prefix, index, last)));
+            final int n = cipher.doFinal(ct, 0, Math.min(length, ctSegment), pt, 0);
+            out.write(pt, 0, n);
+            if (last)
+                break;
+
+            ct[0] = ct[ctSegment];
+            length = 1 + readFully(in, ct, 1, ctSegment);
+        }
+    }
+
+    /**
+     * Encrypts the input stream like {@link #encrypt(InputStream, OutputStream)} (and with the
+     * same format), but reads {@code batchSegments} segments at a time and encrypts them in
+     * parallel on {@code pool}. Memory use is bounded by the batch.
+     */
+    public void encrypt(final InputStream in, final OutputStream out, final ForkJoinPool pool, final int batchSegments)
+            throws IOException, GeneralSecurityException {
+        final byte[] prefix = newPrefix();
+        out.write(header(prefix));
+
+        final int batch = batchSegments * segmentSize;
+        final int ctSegment = segmentSize + TAG_LENGTH;
+        final byte[] pt = new byte[batch + 1];
+        final byte[] ct = new byte[batchSegments * ctSegment];
+
+        int length = readFully(in, pt, 0, pt.length);
+        for (long first = 0; ; first += batchSegments) {
+            final boolean last = length <= batch;
+            final int count = last ? (int) segments(length) : batchSegments;
+            final int ptLength = Math.min(length, batch);
+            parallel(Cipher.ENCRYPT_MODE, prefix, first, count, last, pt, 0, ptLength, segmentSize, ct, 0, ctSegment, pool);
+            out.write(ct, 0, ptLength + count * TAG_LENGTH);
+            if (last)
+                break;
+
+            pt[0] = pt[batch];
+            length = 1 + readFully(in, pt, 1, batch);
+        }
+    }
+
+    /**
+     * Decrypts a stream like {@link #decrypt(InputStream, OutputStream)}, but
+     * {@code batchSegments} segments at a time in parallel on {@code pool}. Plaintext is
+     * written batch by batch, each only after all of its tags have been verified.
+     */
+    public void decrypt(final InputStream in, final OutputStream out, final ForkJoinPool pool, final int batchSegments)
+            throws IOException, GeneralSecurityException {
+        final byte[] header = new byte[HEADER_LENGTH];
+        if (readFully(in, header, 0, HEADER_LENGTH) != HEADER_LENGTH)
+            throw new EOFException("Missing stream header");
+        final byte[] prefix = parseHeader(header, 0);
+
+        final int ctSegment = segmentSize + TAG_LENGTH;
+        final int batch = batchSegments * ctSegment;
+        final byte[] ct = new byte[batch + 1];
+        final byte[] pt = new byte[batchSegments * segmentSize];
+
+        int length = readFully(in, ct, 0, ct.length);
+        for (long first = 0; ; first += batchSegments) {
+            final boolean last = length <= batch;
+            final int ctLength = Math.min(length, batch);
+            final int count = last ? Math.max(1, (ctLength + ctSegment - 1) / ctSegment) : batchSegments;
+            if (ctLength - (count - 1) * ctSegment < TAG_LENGTH)
+                throw new AEADBadTagException("Truncated segment");
+            parallel(Cipher.DECRYPT_MODE, prefix, first, count, last, ct, 0, ctLength, ctSegment, pt, 0, segmentSize, pool);
+            out.write(pt, 0, ctLength - count * TAG_LENGTH);
+            if (last)
+                break;
+
+            ct[0] = ct[batch];
+            length = 1 + readFully(in, ct, 1, batch);
+        }
+    }
+
+    /**
+     * Encrypts an in-memory payload with all segments processed in parallel on {@code pool}.
+     * The result is the same format as {@link #encrypt(InputStream, OutputStream)}.
+     */
+    public byte[] encryptParallel(final byte[] pt, final ForkJoinPool pool) throws GeneralSecurityException {
+        final byte[] prefix = newPrefix();
+        final byte[] ct = new byte[Math.toIntExact(ciphertextSize(pt.length))];
+        System.arraycopy(header(prefix), 0, ct, 0, HEADER_LENGTH);
+        parallel(Cipher.ENCRYPT_MODE, prefix, 0, (int) segments(pt.length), true,
+                pt, 0, pt.length, segmentSize, ct, HEADER_LENGTH, segmentSize + TAG_LENGTH, pool);
+        return ct;
+    }
+
+    /**
+     * Decrypts an in-memory encrypted stream with all segments processed in parallel on {@code pool}.
+     */
+    public byte[] decryptParallel(final byte[] ct, final ForkJoinPool pool) throws GeneralSecurityException {
+        if (ct.length < HEADER_LENGTH + TAG_LENGTH)
+            throw new AEADBadTagException("Truncated stream");
+        final byte[] prefix = parseHeader(ct, 0);
+
+        final int ctSegment = segmentSize + TAG_LENGTH;
+        final int body = ct.length - HEADER_LENGTH;
+        final int count = Math.max(1, (body + ctSegment - 1) / ctSegment);
+        if (body - (count - 1) * ctSegment < TAG_LENGTH)
+            throw new AEADBadTagException("Truncated segment");
+
+        final byte[] pt = new byte[body - count * TAG_LENGTH];
+        parallel(Cipher.DECRYPT_MODE, prefix, 0, count, true, ct, HEADER_LENGTH, body, ctSegment, pt, 0, segmentSize, pool);
+        return pt;
+    }
+
+    /**
+     * Encrypts or decrypts {@code count} consecutive segments in parallel. Segment {@code i} is
+     * read from {@code in} at {@code inOffset + i * inStride} (the last one ends at
+     * {@code inOffset + inLength}) and written to {@code out} at {@code outOffset + i * outStride}.
+     *
+     * @param first index of the first segment
+     * @param last  whether the last of these segments is the last one of the stream
+     */
+    private void parallel(final int mode, final byte[] prefix, final long first, final int count, final boolean last,
+                          final byte[] in, final int inOffset, final int inLength, final int inStride,
+                          final byte[] out, final int outOffset, final int outStride, final ForkJoinPool pool)
+            throws GeneralSecurityException {
+        try {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(i -> {
+                final int from = inOffset + i * inStride;
+                try {
+                    final Cipher cipher = workers.get().init(mode, nonce(prefix, first + i, last && i == count - 1));
+                    cipher.doFinal(in, from, Math.min(inStride, inOffset + inLength - from), out, outOffset + i * outStride);
+                } catch (GeneralSecurityException e) {
+                    throw new SegmentException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SegmentException)
+                throw (GeneralSecurityException) e.getCause().getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * A worker thread's cipher. The JDK refuses to initialize a cipher with the key and nonce
+     * it already has (ChaCha20 in any mode, GCM when encrypting), which happens when the same
+     * thread encrypts and then decrypts the same segment; a fresh cipher is used in that case.
+     */
+    private final class Worker {
+        private Cipher cipher;
+        private byte[] nonce;
+
+        Cipher init(final int mode, final byte[] nonce) throws GeneralSecurityException {
+            if (cipher == null || Arrays.equals(nonce, this.nonce))
+                cipher = Cipher.getInstance(algorithm.transformation());
+            cipher.init(mode, key, algorithm.parameters(nonce));
+            this.nonce = nonce;
+            return cipher;
+        }
+    }
+
+    /**
+     * Carries a failed segment out of the parallel stream.
+     */
+    private static final class SegmentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SegmentException(final GeneralSecurityException cause) {
+            super(cause);
+        }
+    }
+
+    private static byte[] newPrefix() {
+        final byte[] prefix = new byte[PREFIX_LENGTH];
+        new SecureRandom().nextBytes(prefix);
+        return prefix;
+    }
+
+    private byte[] header(final byte[] prefix) {
+        return ByteBuffer.allocate(HEADER_LENGTH).putInt(segmentSize).put(prefix).array();
+    }
+
+    /**
+     * Checks the segment size in the header and returns the nonce prefix.
+     */
+    private byte[] parseHeader(final byte[] header, final int offset) throws GeneralSecurityException {
+        final ByteBuffer hb = ByteBuffer.wrap(header, offset, HEADER_LENGTH);
+        if (hb.getInt() != segmentSize)
+            throw new GeneralSecurityException("Unexpected segment size");
+        final byte[] prefix = new byte[PREFIX_LENGTH];
+        hb.get(prefix);
+        return prefix;
+    }
+
+    public byte[] encrypt(final byte[] pt) throws IOException, GeneralSecurityException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int) ciphertextSize(pt.length));
+        encrypt(new ByteArrayInputStream(pt), out);
+        return out.toByteArray();
+    }
+
+    public byte[] decrypt(final byte[] ct) throws IOException, GeneralSecurityException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(ct.length);
+        decrypt(new ByteArrayInputStream(ct), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return size of the encrypted stream for a plaintext of the given size
+     */
+    public long ciphertextSize(final long plaintextSize) {
+        return HEADER_LENGTH + plaintextSize + segments(plaintextSize) * TAG_LENGTH;
+    }
+
+    /**
+     * @return number of segments for a plaintext of the given size; an empty plaintext has one (empty) segment
+     */
+    public long segments(final long plaintextSize) {
+        return Math.max(1, (plaintextSize + segmentSize - 1) / segmentSize);
+    }
+
+    public Algorithm algorithm() {
+        return algorithm;
+    }
+
+    public int segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Reads until {@code length} bytes were read or the stream ended.
+     *
+     * @return number of bytes read
+     */
+    static int readFully(final InputStream in, final byte[] b, final int offset, final int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int n = in.read(b, offset + total, length - total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Encrypts and decrypts a generated stream without ever holding it in memory, then shows
+     * that a truncated stream is rejected.
+     * Usage: {@code SegmentedAEAD [size in MiB] [AES_GCM|CHACHA20_POLY1305]} (defaults: 1024, AES_GCM).
+     */
+    public static void main(String[] args) throws Exception {
+        final long size = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+        final Algorithm algorithm = Algorithm.valueOf(args.length > 1 ? args[1] : "AES_GCM");
+        final SegmentedAEAD aead = new SegmentedAEAD(algorithm, algorithm.generateKey());
+
+        // plaintext source, ciphertext sink and ciphertext source are all generated on the fly
+        final byte[] block = new byte[DEFAULT_SEGMENT_SIZE];
+        new Random(42).nextBytes(block);
+        final Runtime runtime = Runtime.getRuntime();
+        final long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        final File file = File.createTempFile("stream", ".enc");
+        try {
+            long start = System.nanoTime();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+                aead.encrypt(new RepeatingInputStream(block, size), out);
+            }
+            System.out.printf("%s: encrypted %d MiB in %d ms (file: %d bytes, expected %d)%n", algorithm,
+                    size >> 20, (System.nanoTime() - start) / 1_000_000, file.length(), aead.ciphertextSize(size));
+
+            final long[] count = new long[1];
+            start = System.nanoTime();
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 20)) {
+                aead.decrypt(in, new OutputStream() {
+                    @Override
+                    public void write(final int b) {
+                        count[0]++;
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) {
+                        count[0] += len;
+                    }
+                });
+            }
+            System.out.printf("%s: decrypted %d MiB in %d ms%n", algorithm,
+                    count[0] >> 20, (System.nanoTime() - start) / 1_000_000);
+            System.out.printf("heap growth: %d KiB%n", (runtime.totalMemory() - runtime.freeMemory() - usedBefore) >> 10);
+        } finally {
+            file.delete();
+        }
+
+        // cut a small stream exactly at a segment boundary
+        final byte[] ct = aead.encrypt(new byte[3 * DEFAULT_SEGMENT_SIZE]);
+        final byte[] truncated = Arrays.copyOf(ct, HEADER_LENGTH + 2 * (DEFAULT_SEGMENT_SIZE + TAG_LENGTH));
+        try {
+            aead.decrypt(truncated);
+            System.out.println("truncated stream accepted?!");
+        } catch (AEADBadTagException e) {
+            System.out.println("truncated stream rejected");
+        }
+    }
+
+    /**
+     * {@code size} bytes made of repetitions of {@code block}.
+     */
+    static final class RepeatingInputStream extends InputStream {
+        private final byte[] block;
+        private final long size;
+        private long position;
+
+        RepeatingInputStream(final byte[] block, final long size) {
+            this.block = block;
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (position == size)
+                return -1;
+            final int start = (int) (position % block.length);
+            final int n = (int) Math.min(Math.min(len, size - position), block.length - start);
+            System.arraycopy(block, start, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -8,7 +8,6 @@ import javax.crypto.KeyAgreement;
 import javax.crypto.interfaces.DHPublicKey;
 import javax.crypto.spec.DHParameterSpec;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.KeyPair;
@@ -48,22 +47,21 @@ public class AgentCommunicationDH {
                 final byte[] sharedSecret = dh.generateSecret();
                 print("Shared secret: g^ab = B^a = %s", hex(sharedSecret));
 
-                // By default the shared secret will be 32 bytes long,
-                // but our cipher requires keys of length 16 bytes
-                // IMPORTANT: It is safer to not create the session key directly from
-                // the shared secret, but derive it using key derivation function
-                // (will be covered later)
-                final SecretKeySpec aesKey = new SecretKeySpec(sharedSecret,
-                        0, 16, "AES");
+                // Do not use the shared secret as a key directly: derive directional
+                // session keys and nonces from it with HKDF, bound to both public keys
+                final KeySchedule keys = KeySchedule.fromSharedSecret(sharedSecret,
+                        KeySchedule.transcript(keyPair.getPublic().getEncoded(), bobPK.getEncoded()));
 
                 final Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
-                aes.init(Cipher.ENCRYPT_MODE, aesKey);
+                aes.init(Cipher.ENCRYPT_MODE, keys.initiatorKey(),
+                        new GCMParameterSpec(128, keys.initiatorNonce(0)));
+                send("bob", aes.doFinal("Hey Bob!".getBytes(StandardCharsets.UTF_8)));
 
-                final byte[] ct = aes.doFinal("Hey Bob!".getBytes(StandardCharsets.UTF_8));
-                final byte[] iv = aes.getIV();
-
-                send("bob", iv);
-                send("bob", ct);
+                // rekey without a new key agreement
+                final KeySchedule next = keys.rekey();
+                aes.init(Cipher.ENCRYPT_MODE, next.initiatorKey(),
+                        new GCMParameterSpec(128, next.initiatorNonce(0)));
+                send("bob", aes.doFinal("Hey Bob, again!".getBytes(StandardCharsets.UTF_8)));
 
                 print("I'm, done!");
             }
@@ -94,15 +92,18 @@ public class AgentCommunicationDH {
 
                 final byte[] sharedSecret = dh.generateSecret();
                 print("Shared secret: g^ab = A^b = %s", hex(sharedSecret));
-                final SecretKeySpec aesKey = new SecretKeySpec(sharedSecret, 0, 16, "AES");
+                final KeySchedule keys = KeySchedule.fromSharedSecret(sharedSecret,
+                        KeySchedule.transcript(alicePK.getEncoded(), keyPair.getPublic().getEncoded()));
 
                 final Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
-                final byte[] iv = receive("alice");
-                final byte[] ct = receive("alice");
-                aes.init(Cipher.DECRYPT_MODE, aesKey, new GCMParameterSpec(128, iv));
-                final byte[] pt = aes.doFinal(ct);
-
-                print("I got: %s", new String(pt, StandardCharsets.UTF_8));
+                aes.init(Cipher.DECRYPT_MODE, keys.initiatorKey(),
+                        new GCMParameterSpec(128, keys.initiatorNonce(0)));
+                print("I got: %s", new String(aes.doFinal(receive("alice")), StandardCharsets.UTF_8));
+
+                final KeySchedule next = keys.rekey();
+                aes.init(Cipher.DECRYPT_MODE, next.initiatorKey(),
+                        new GCMParameterSpec(128, next.initiatorNonce(0)));
+                print("I got: %s", new String(aes.doFinal(receive("alice")), StandardCharsets.UTF_8));
             }
         });
 
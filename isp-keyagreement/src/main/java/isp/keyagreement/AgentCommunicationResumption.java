@@ -0,0 +1,144 @@
+package isp.keyagreement;
+
+import fri.isp.Agent;
+import fri.isp.Environment;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+
+/*
+ * Alice connects to Bob several times. The first connection runs a full ECDH key agreement,
+ * after which Bob issues a session ticket. Subsequent connections resume the session from
+ * the SessionCache in one round trip (ticket + nonces) and skip the public-key operations.
+ */
+public class AgentCommunicationResumption {
+    public static void main(String[] args) {
+        final int connections = 3;
+        final long ttl = 60 * 60 * 1000;
+
+        final Environment env = new Environment();
+
+        env.add(new Agent("alice") {
+            @Override
+            public void task() throws Exception {
+                final SessionCache<String> cache = new SessionCache<>(16, ttl);
+                final String peer = SessionCache.peerPair("alice", "bob");
+                final SecureRandom rnd = new SecureRandom();
+
+                for (int i = 0; i < connections; i++) {
+                    final SessionCache.Session session = cache.get(peer);
+                    final byte[] nonceA = new byte[16];
+                    rnd.nextBytes(nonceA);
+
+                    // offer the ticket (or an empty one) with a fresh nonce
+                    final byte[] ticket = session == null ? new byte[0] : session.ticket();
+                    send("bob", ticket);
+                    send("bob", nonceA);
+
+                    final byte[] nonceB = receive("bob");
+                    final KeySchedule keys;
+                    if (nonceB.length > 0) {
+                        print("Connection %d: resumed session", i);
+                        keys = KeySchedule.fromResumptionSecret(session.secret(),
+                                KeySchedule.transcript(ticket, nonceA, nonceB));
+                    } else {
+                        print("Connection %d: full ECDH handshake", i);
+                        keys = fullHandshake();
+                    }
+                    // bob always issues a fresh ticket for the next connection
+                    cache.put(peer, receive("bob"), keys.resumptionSecret());
+
+                    final Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+                    aes.init(Cipher.ENCRYPT_MODE, keys.initiatorKey(),
+                            new GCMParameterSpec(128, keys.initiatorNonce(0)));
+                    send("bob", aes.doFinal(String.format("Hey Bob, connection %d!", i)
+                            .getBytes(StandardCharsets.UTF_8)));
+                }
+                print("%s", cache);
+            }
+
+            private KeySchedule fullHandshake() throws Exception {
+                final KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+                kpg.initialize(256);
+                final KeyPair keyPair = kpg.generateKeyPair();
+                send("bob", keyPair.getPublic().getEncoded());
+
+                final PublicKey bobPK = KeyFactory.getInstance("EC")
+                        .generatePublic(new X509EncodedKeySpec(receive("bob")));
+                final KeyAgreement dh = KeyAgreement.getInstance("ECDH");
+                dh.init(keyPair.getPrivate());
+                dh.doPhase(bobPK, true);
+
+                return KeySchedule.fromSharedSecret(dh.generateSecret(),
+                        KeySchedule.transcript(keyPair.getPublic().getEncoded(), bobPK.getEncoded()));
+            }
+        });
+
+        env.add(new Agent("bob") {
+            @Override
+            public void task() throws Exception {
+                final SessionCache<String> cache = new SessionCache<>(1024, ttl);
+                final SecureRandom rnd = new SecureRandom();
+
+                for (int i = 0; i < connections; i++) {
+                    final byte[] ticket = receive("alice");
+                    final byte[] nonceA = receive("alice");
+
+                    final SessionCache.Session session = ticket.length == 0 ? null :
+                            cache.get(SessionCache.ticketKey(ticket));
+                    final KeySchedule keys;
+                    if (session != null) {
+                        final byte[] nonceB = new byte[16];
+                        rnd.nextBytes(nonceB);
+                        send("alice", nonceB);
+                        keys = KeySchedule.fromResumptionSecret(session.secret(),
+                                KeySchedule.transcript(ticket, nonceA, nonceB));
+                        // tickets are single-use, the resumed session gets a new one below
+                        cache.remove(SessionCache.ticketKey(ticket));
+                    } else {
+                        send("alice", new byte[0]);
+                        keys = fullHandshake();
+                    }
+
+                    final byte[] newTicket = new byte[16];
+                    rnd.nextBytes(newTicket);
+                    cache.put(SessionCache.ticketKey(newTicket), newTicket, keys.resumptionSecret());
+                    send("alice", newTicket);
+
+                    final Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+                    aes.init(Cipher.DECRYPT_MODE, keys.initiatorKey(),
+                            new GCMParameterSpec(128, keys.initiatorNonce(0)));
+                    print("I got: %s", new String(aes.doFinal(receive("alice")), StandardCharsets.UTF_8));
+                }
+                print("%s", cache);
+            }
+
+            private KeySchedule fullHandshake() throws Exception {
+                final PublicKey alicePK = KeyFactory.getInstance("EC")
+                        .generatePublic(new X509EncodedKeySpec(receive("alice")));
+                final KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+                kpg.initialize(256);
+                final KeyPair keyPair = kpg.generateKeyPair();
+                send("alice", keyPair.getPublic().getEncoded());
+
+                final KeyAgreement dh = KeyAgreement.getInstance("ECDH");
+                dh.init(keyPair.getPrivate());
+                dh.doPhase(alicePK, true);
+
+                return KeySchedule.fromSharedSecret(dh.generateSecret(),
+                        KeySchedule.transcript(alicePK.getEncoded(), keyPair.getPublic().getEncoded()));
+            }
+        });
+
+        env.connect("alice", "bob");
+        env.start();
+    }
+}
@@ -0,0 +1,128 @@
+package isp.keyagreement;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.KeyGenerator;
+import javax.crypto.interfaces.DHPublicKey;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+
+/**
+ * Compares the cost of a handshake with a cold and a warm {@link SessionCache}.
+ * <p>
+ * Both parties are simulated in a single thread, so the numbers are pure CPU cost
+ * (no network round trips). With a cold cache every handshake is a full public-key
+ * exchange as in {@link A1AgentCommunicationKeyExchange}, {@link AgentCommunicationDH} and
+ * {@link AgentCommunicationECDH}; with a warm cache the session is resumed from the
+ * cached secret as in {@link AgentCommunicationResumption}.
+ */
+public class HandshakeBenchmark {
+
+    /**
+     * A full handshake between the initiator and the responder.
+     */
+    interface FullHandshake {
+        /**
+         * @return the key schedule both parties agreed upon
+         */
+        KeySchedule run() throws Exception;
+    }
+
+    private static final SecureRandom RND = new SecureRandom();
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        // RSA key transport: bob's key pair exists in advance, alice sends an RSA-OAEP wrapped AES key
+        final KeyPair rsaKP = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        final KeyGenerator aesGen = KeyGenerator.getInstance("AES");
+        final FullHandshake rsa = () -> {
+            final Cipher enc = Cipher.getInstance("RSA/ECB/OAEPPadding");
+            enc.init(Cipher.ENCRYPT_MODE, rsaKP.getPublic());
+            final byte[] wrapped = enc.doFinal(aesGen.generateKey().getEncoded());
+
+            final Cipher dec = Cipher.getInstance("RSA/ECB/OAEPPadding");
+            dec.init(Cipher.DECRYPT_MODE, rsaKP.getPrivate());
+            return KeySchedule.fromSharedSecret(dec.doFinal(wrapped), wrapped);
+        };
+
+        // DH: group parameters are taken from alice's key, as in AgentCommunicationDH
+        final FullHandshake dh = () -> {
+            final KeyPairGenerator kpg = KeyPairGenerator.getInstance("DH");
+            kpg.initialize(2048);
+            final KeyPair alice = kpg.generateKeyPair();
+            kpg.initialize(((DHPublicKey) alice.getPublic()).getParams());
+            final KeyPair bob = kpg.generateKeyPair();
+            return agree("DH", alice, bob);
+        };
+
+        final FullHandshake ecdh = () -> {
+            final KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+            kpg.initialize(256);
+            return agree("ECDH", kpg.generateKeyPair(), kpg.generateKeyPair());
+        };
+
+        System.out.printf("%-10s %-5s %12s %8s %8s%n", "handshake", "cache", "us/op", "hits", "misses");
+        run("RSA-OAEP", rsa, iterations);
+        run("DH-2048", dh, iterations);
+        run("ECDH-256", ecdh, iterations);
+    }
+
+    private static KeySchedule agree(final String algorithm, final KeyPair alice, final KeyPair bob)
+            throws Exception {
+        final KeyAgreement a = KeyAgreement.getInstance(algorithm);
+        a.init(alice.getPrivate());
+        a.doPhase(bob.getPublic(), true);
+        final byte[] transcript = KeySchedule.transcript(alice.getPublic().getEncoded(), bob.getPublic().getEncoded());
+        final KeySchedule aliceKeys = KeySchedule.fromSharedSecret(a.generateSecret(), transcript);
+
+        final KeyAgreement b = KeyAgreement.getInstance(algorithm);
+        b.init(bob.getPrivate());
+        b.doPhase(alice.getPublic(), true);
+        KeySchedule.fromSharedSecret(b.generateSecret(), transcript);
+        return aliceKeys;
+    }
+
+    private static void run(final String name, final FullHandshake full, final int iterations) throws Exception {
+        // warm up the JIT with a few rounds of both paths
+        handshakes(full, new SessionCache<>(16, 60_000), iterations / 10 + 1, true);
+        handshakes(full, new SessionCache<>(16, 60_000), iterations / 10 + 1, false);
+
+        for (boolean cold : new boolean[]{true, false}) {
+            final SessionCache<String> cache = new SessionCache<>(16, 60_000);
+            final long nanos = handshakes(full, cache, iterations, cold);
+            System.out.printf("%-10s %-5s %12.1f %8d %8d%n", name, cold ? "cold" : "warm",
+                    nanos / 1e3 / iterations, cache.hits(), cache.misses());
+        }
+    }
+
+    private static long handshakes(final FullHandshake full, final SessionCache<String> cache,
+                                   final int iterations, final boolean cold) throws Exception {
+        final String peer = SessionCache.peerPair("alice", "bob");
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (cold)
+                cache.clear();
+
+            final SessionCache.Session session = cache.get(peer);
+            final KeySchedule keys;
+            if (session == null) {
+                keys = full.run();
+            } else {
+                final byte[] ticket = session.ticket(), nonceA = new byte[16], nonceB = new byte[16];
+                RND.nextBytes(nonceA);
+                RND.nextBytes(nonceB);
+                final byte[] freshness = KeySchedule.transcript(ticket, nonceA, nonceB);
+                // both parties derive the resumed schedule
+                keys = KeySchedule.fromResumptionSecret(session.secret(), freshness);
+                KeySchedule.fromResumptionSecret(session.secret(), freshness);
+            }
+
+            final byte[] ticket = new byte[16];
+            RND.nextBytes(ticket);
+            cache.put(peer, ticket, keys.resumptionSecret());
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,212 @@
+package isp.keyagreement;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * A session key schedule built on HKDF-SHA256 (RFC 5869).
+ * <p>
+ * Instead of truncating the raw (EC)DH shared secret into an AES key, the secret is first
+ * run through HKDF-Extract to obtain a uniformly random pseudo-random key (PRK). From the PRK
+ * we then HKDF-Expand independent values, each bound to its own label:
+ * <ul>
+ * <li>an AES key and a 4-byte nonce prefix for each direction (initiator to responder and
+ * responder to initiator), so the two parties never encrypt under the same key/nonce pair;</li>
+ * <li>a rekey secret, from which the next generation of keys is derived without a new
+ * handshake ({@link #rekey()});</li>
+ * <li>a resumption secret that can be cached to resume the session later.</li>
+ * </ul>
+ * GCM nonces are built as {@code prefix || 64-bit sequence number}.
+ */
+public final class KeySchedule {
+    public static final String HMAC = "HmacSHA256";
+    public static final int HASH_LEN = 32;
+    public static final int KEY_LEN = 16;
+    public static final int NONCE_PREFIX_LEN = 4;
+    public static final int NONCE_LEN = 12;
+
+    private static final String LABEL_PREFIX = "isp key schedule ";
+
+    private final int generation;
+    private final SecretKey initiatorKey;
+    private final SecretKey responderKey;
+    private final byte[] initiatorNoncePrefix;
+    private final byte[] responderNoncePrefix;
+    private final byte[] rekeySecret;
+    private final byte[] resumptionSecret;
+
+    private KeySchedule(final byte[] prk, final int generation) throws GeneralSecurityException {
+        this.generation = generation;
+        this.initiatorKey = new SecretKeySpec(expandLabel(prk, "initiator key", KEY_LEN), "AES");
+        this.responderKey = new SecretKeySpec(expandLabel(prk, "responder key", KEY_LEN), "AES");
+        this.initiatorNoncePrefix = expandLabel(prk, "initiator nonce", NONCE_PREFIX_LEN);
+        this.responderNoncePrefix = expandLabel(prk, "responder nonce", NONCE_PREFIX_LEN);
+        this.rekeySecret = expandLabel(prk, "rekey", HASH_LEN);
+        this.resumptionSecret = expandLabel(prk, "resumption", HASH_LEN);
+    }
+
+    /**
+     * Derives a key schedule from a key-agreement result.
+     *
+     * @param sharedSecret the raw output of {@link javax.crypto.KeyAgreement#generateSecret()}
+     * @param transcript   public handshake data both parties saw (e.g. both public keys); used
+     *                     as HKDF salt so the keys are bound to this particular exchange. May be null.
+     * @return the generation-0 key schedule
+     */
+    public static KeySchedule fromSharedSecret(final byte[] sharedSecret, final byte[] transcript)
+            throws GeneralSecurityException {
+        final byte[] prk = extract(transcript, sharedSecret);
+        try {
+            return new KeySchedule(prk, 0);
+        } finally {
+            Arrays.fill(prk, (byte) 0);
+        }
+    }
+
+    /**
+     * Resumes a key schedule from a previously exported {@link #resumptionSecret()}. Fresh
+     * handshake data (e.g. nonces from both parties) must be mixed in, otherwise the resumed
+     * session would reuse the keys of the original one.
+     *
+     * @param resumptionSecret the cached resumption secret
+     * @param freshness        values both parties contributed to this resumption
+     * @return a new generation-0 key schedule
+     */
+    public static KeySchedule fromResumptionSecret(final byte[] resumptionSecret, final byte[] freshness)
+            throws GeneralSecurityException {
+        final byte[] prk = extract(freshness, resumptionSecret);
+        try {
+            return new KeySchedule(prk, 0);
+        } finally {
+            Arrays.fill(prk, (byte) 0);
+        }
+    }
+
+    /**
+     * Derives the next generation of keys from the rekey secret. Both parties call this
+     * at the same point of the conversation; no public-key operation is needed.
+     *
+     * @return key schedule of the next generation
+     */
+    public KeySchedule rekey() throws GeneralSecurityException {
+        final byte[] prk = extract(null, rekeySecret);
+        try {
+            return new KeySchedule(prk, generation + 1);
+        } finally {
+            Arrays.fill(prk, (byte) 0);
+        }
+    }
+
+    /**
+     * HKDF-Extract(salt, IKM) = HMAC-SHA256(salt, IKM)
+     *
+     * @param salt optional salt; if null or empty, a string of {@link #HASH_LEN} zeros is used
+     * @param ikm  input keying material
+     * @return pseudo-random key of {@link #HASH_LEN} bytes
+     */
+    public static byte[] extract(final byte[] salt, final byte[] ikm) throws GeneralSecurityException {
+        final byte[] s = salt == null || salt.length == 0 ? new byte[HASH_LEN] : salt;
+        final Mac hmac = Mac.getInstance(HMAC);
+        hmac.init(new SecretKeySpec(s, HMAC));
+        return hmac.doFinal(ikm);
+    }
+
+    /**
+     * HKDF-Expand(PRK, info, L)
+     *
+     * @param prk    pseudo-random key (output of {@link #extract(byte[], byte[])})
+     * @param info   context and application specific information
+     * @param length number of output bytes, at most 255 * {@link #HASH_LEN}
+     * @return output keying material
+     */
+    public static byte[] expand(final byte[] prk, final byte[] info, final int length)
+            throws GeneralSecurityException {
+        if (length < 0 || length > 255 * HASH_LEN)
+            throw new IllegalArgumentException("Invalid HKDF output length: " + length);
+
+        final Mac hmac = Mac.getInstance(HMAC);
+        hmac.init(new SecretKeySpec(prk, HMAC));
+
+        final byte[] okm = new byte[length];
+        byte[] t = new byte[0];
+        for (int i = 1, offset = 0; offset < length; i++) {
+            hmac.update(t);
+            hmac.update(info);
+            hmac.update((byte) i);
+            t = hmac.doFinal();
+
+            final int n = Math.min(t.length, length - offset);
+            System.arraycopy(t, 0, okm, offset, n);
+            offset += n;
+        }
+        return okm;
+    }
+
+    private static byte[] expandLabel(final byte[] prk, final String label, final int length)
+            throws GeneralSecurityException {
+        return expand(prk, (LABEL_PREFIX + label).getBytes(StandardCharsets.UTF_8), length);
+    }
+
+    private static byte[] nonce(final byte[] prefix, final long sequence) {
+        return ByteBuffer.allocate(NONCE_LEN).put(prefix).putLong(sequence).array();
+    }
+
+    /**
+     * @return AES key the initiator encrypts with (and the responder decrypts with)
+     */
+    public SecretKey initiatorKey() {
+        return initiatorKey;
+    }
+
+    /**
+     * @return AES key the responder encrypts with (and the initiator decrypts with)
+     */
+    public SecretKey responderKey() {
+        return responderKey;
+    }
+
+    /**
+     * @param sequence per-direction message counter; must never repeat within a generation
+     * @return 12-byte GCM nonce for the given initiator message
+     */
+    public byte[] initiatorNonce(final long sequence) {
+        return nonce(initiatorNoncePrefix, sequence);
+    }
+
+    /**
+     * @param sequence per-direction message counter; must never repeat within a generation
+     * @return 12-byte GCM nonce for the given responder message
+     */
+    public byte[] responderNonce(final long sequence) {
+        return nonce(responderNoncePrefix, sequence);
+    }
+
+    /**
+     * @return secret that may be cached to resume the session without a new key agreement
+     */
+    public byte[] resumptionSecret() {
+        return resumptionSecret.clone();
+    }
+
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * Hashes length-prefixed handshake messages into a transcript that is used as HKDF salt.
+     */
+    public static byte[] transcript(final byte[]... messages) throws GeneralSecurityException {
+        final MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        for (byte[] m : messages) {
+            sha.update(ByteBuffer.allocate(Integer.BYTES).putInt(m.length).array());
+            sha.update(m);
+        }
+        return sha.digest();
+    }
+}
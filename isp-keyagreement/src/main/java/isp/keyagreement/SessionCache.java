@@ -0,0 +1,212 @@
+package isp.keyagreement;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of resumable sessions (session tickets / pre-shared keys).
+ * <p>
+ * After a full key agreement, both parties store the {@link KeySchedule#resumptionSecret()}
+ * under a random ticket. The initiator keys its entries by peer pair
+ * ({@link #peerPair(String, String)}), the responder by the ticket itself
+ * ({@link #ticketKey(byte[])}). On the next connection the initiator sends the ticket together
+ * with a fresh nonce and the responder answers with its own nonce; both then call
+ * {@link KeySchedule#fromResumptionSecret(byte[], byte[])} and skip the public-key step.
+ * <p>
+ * Entries are evicted in LRU order once {@code capacity} is exceeded and are dropped once
+ * they are older than {@code ttlMillis}. Evicted secrets are zeroed.
+ *
+ * @param <K> type of the cache key
+ */
+public class SessionCache<K> {
+
+    /**
+     * A cached session: the ticket that identifies it and the resumption secret. The cache hands
+     * out copies, so zeroing an evicted entry does not affect sessions already returned.
+     */
+    public static final class Session {
+        private final byte[] ticket;
+        private final byte[] secret;
+        private final long createdAt;
+
+        private Session(final byte[] ticket, final byte[] secret, final long createdAt) {
+            this.ticket = ticket.clone();
+            this.secret = secret.clone();
+            this.createdAt = createdAt;
+        }
+
+        public byte[] ticket() {
+            return ticket.clone();
+        }
+
+        public byte[] secret() {
+            return secret.clone();
+        }
+
+        private void destroy() {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    private final int capacity;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, Session> sessions;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param capacity  maximal number of cached sessions
+     * @param ttlMillis lifetime of a cached session in milliseconds
+     */
+    public SessionCache(final int capacity, final long ttlMillis) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        if (ttlMillis <= 0)
+            throw new IllegalArgumentException("TTL must be positive");
+
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        // access-ordered map: iteration starts at the least recently used entry
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Session> eldest) {
+                if (size() > SessionCache.this.capacity) {
+                    eldest.getValue().destroy();
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Stores (or replaces) a session.
+     *
+     * @param key    cache key
+     * @param ticket opaque session identifier sent in the clear on resumption
+     * @param secret resumption secret
+     */
+    public synchronized void put(final K key, final byte[] ticket, final byte[] secret) {
+        final Session previous = sessions.put(key, new Session(ticket, secret, System.currentTimeMillis()));
+        if (previous != null)
+            previous.destroy();
+    }
+
+    /**
+     * Looks up a session and counts the lookup as a hit or a miss. Expired sessions
+     * are removed and count as a miss.
+     *
+     * @param key cache key
+     * @return a copy of the cached session or null
+     */
+    public synchronized Session get(final K key) {
+        final Session session = sessions.get(key);
+        if (session == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (isExpired(session, System.currentTimeMillis())) {
+            sessions.remove(key);
+            session.destroy();
+            evictions.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return new Session(session.ticket, session.secret, session.createdAt);
+    }
+
+    /**
+     * Removes a session, e.g. after the peer has rejected its ticket. Tickets should be
+     * single-use on the responder side, so it removes the entry once it has been resumed.
+     *
+     * @param key cache key
+     */
+    public synchronized void remove(final K key) {
+        final Session session = sessions.remove(key);
+        if (session != null)
+            session.destroy();
+    }
+
+    /**
+     * Drops all expired sessions.
+     */
+    public synchronized void purgeExpired() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext(); ) {
+            final Session session = it.next();
+            if (isExpired(session, now)) {
+                session.destroy();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops all sessions. Counters are kept.
+     */
+    public synchronized void clear() {
+        sessions.values().forEach(Session::destroy);
+        sessions.clear();
+    }
+
+    private boolean isExpired(final Session session, final long now) {
+        return now - session.createdAt >= ttlMillis;
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return hits / (hits + misses), or 0 if there were no lookups
+     */
+    public double hitRate() {
+        final long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SessionCache[size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.2f]",
+                size(), hits(), misses(), evictions(), hitRate());
+    }
+
+    /**
+     * @return initiator-side key for the session between {@code local} and {@code remote}
+     */
+    public static String peerPair(final String local, final String remote) {
+        return local + "->" + remote;
+    }
+
+    /**
+     * @return responder-side key for the given ticket
+     */
+    public static String ticketKey(final byte[] ticket) {
+        final StringBuilder sb = new StringBuilder(ticket.length * 2);
+        for (byte b : ticket)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
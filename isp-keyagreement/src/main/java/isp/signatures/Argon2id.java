@@ -0,0 +1,367 @@
+package isp.signatures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pure-Java Argon2id (RFC 9106, version 0x13), the memory-hard password hash recommended
+ * over PBKDF2 ({@link KeyDerivation}): an attacker has to spend {@code memoryKiB} of memory
+ * per guess, which makes GPU and ASIC cracking much more expensive.
+ * <p>
+ * The memory matrix (one {@code long[]} of {@code memoryKiB * 128} words) is kept per calling
+ * thread and reused by later hashes on that thread instead of being reallocated every time.
+ * The {@code parallelism} lanes of each slice are filled concurrently on a shared worker pool.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class Argon2id {
+    public static final int VERSION = 0x13;
+    private static final int TYPE_ID = 2;
+
+    private static final int BLOCK_WORDS = 128;
+    private static final int SYNC_POINTS = 4;
+
+    private static final ExecutorService LANES = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "argon2-lane");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ThreadLocal<long[][]> MEMORY = ThreadLocal.withInitial(() -> new long[1][0]);
+
+    private final int iterations;
+    private final int memoryKiB;
+    private final int parallelism;
+    private final int tagLength;
+
+    /**
+     * @param iterations  number of passes over the memory (t)
+     * @param memoryKiB   memory size in KiB (m), at least 8 * parallelism
+     * @param parallelism number of lanes (p)
+     * @param tagLength   output length in bytes, at least 4
+     */
+    public Argon2id(final int iterations, final int memoryKiB, final int parallelism, final int tagLength) {
+        if (iterations < 1)
+            throw new IllegalArgumentException("At least one iteration is required");
+        if (parallelism < 1 || parallelism > 0xffffff)
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        if (memoryKiB < 8 * parallelism)
+            throw new IllegalArgumentException("Memory must be at least 8 KiB per lane");
+        if (tagLength < 4)
+            throw new IllegalArgumentException("Tag must be at least 4 bytes");
+
+        this.iterations = iterations;
+        this.memoryKiB = memoryKiB;
+        this.parallelism = parallelism;
+        this.tagLength = tagLength;
+    }
+
+    public byte[] hash(final byte[] password, final byte[] salt) {
+        return hash(password, salt, new byte[0], new byte[0]);
+    }
+
+    /**
+     * @param password       password (P)
+     * @param salt           salt (S), at least 8 bytes
+     * @param secret         optional secret key (K), may be empty
+     * @param associatedData optional associated data (X), may be empty
+     * @return tag of {@code tagLength} bytes
+     */
+    public byte[] hash(final byte[] password, final byte[] salt, final byte[] secret, final byte[] associatedData) {
+        if (salt.length < 8)
+            throw new IllegalArgumentException("Salt must be at least 8 bytes");
+
+        final byte[] h0 = new Blake2b(64)
+                .updateInt(parallelism).updateInt(tagLength).updateInt(memoryKiB).updateInt(iterations)
+                .updateInt(VERSION).updateInt(TYPE_ID)
+                .updateInt(password.length).update(password)
+                .updateInt(salt.length).update(salt)
+                .updateInt(secret.length).update(secret)
+                .updateInt(associatedData.length).update(associatedData)
+                .digest();
+
+        final int blocks = 4 * parallelism * (memoryKiB / (4 * parallelism));
+        final int laneLength = blocks / parallelism;
+        final int segmentLength = laneLength / SYNC_POINTS;
+        final long[] memory = memory(blocks * BLOCK_WORDS);
+
+        // first two blocks of every lane
+        final byte[] input = new byte[h0.length + 8];
+        System.arraycopy(h0, 0, input, 0, h0.length);
+        final byte[] block = new byte[1024];
+        for (int lane = 0; lane < parallelism; lane++) {
+            for (int i = 0; i < 2; i++) {
+                writeInt(input, h0.length, i);
+                writeInt(input, h0.length + 4, lane);
+                hashPrime(input, block);
+                final int offset = (lane * laneLength + i) * BLOCK_WORDS;
+                for (int w = 0; w < BLOCK_WORDS; w++)
+                    memory[offset + w] = Blake2b.littleEndian(block, 8 * w);
+            }
+        }
+
+        final Instance instance = new Instance(memory, blocks, laneLength, segmentLength);
+        for (int pass = 0; pass < iterations; pass++) {
+            for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                fillSlice(instance, pass, slice);
+            }
+        }
+
+        // XOR the last blocks of all lanes and hash the result
+        final long[] last = new long[BLOCK_WORDS];
+        for (int lane = 0; lane < parallelism; lane++) {
+            final int offset = (lane * laneLength + laneLength - 1) * BLOCK_WORDS;
+            for (int w = 0; w < BLOCK_WORDS; w++)
+                last[w] ^= memory[offset + w];
+        }
+        for (int w = 0; w < BLOCK_WORDS; w++)
+            for (int b = 0; b < 8; b++)
+                block[8 * w + b] = (byte) (last[w] >>> (8 * b));
+
+        final byte[] tag = new byte[tagLength];
+        hashPrime(block, tag);
+        return tag;
+    }
+
+    /**
+     * @return the calling thread's memory matrix, grown if it is too small
+     */
+    private static long[] memory(final int words) {
+        final long[][] holder = MEMORY.get();
+        if (holder[0].length < words)
+            holder[0] = new long[words];
+        return holder[0];
+    }
+
+    private static final class Instance {
+        final long[] memory;
+        final int blocks;
+        final int laneLength;
+        final int segmentLength;
+
+        Instance(final long[] memory, final int blocks, final int laneLength, final int segmentLength) {
+            this.memory = memory;
+            this.blocks = blocks;
+            this.laneLength = laneLength;
+            this.segmentLength = segmentLength;
+        }
+    }
+
+    private void fillSlice(final Instance instance, final int pass, final int slice) {
+        if (parallelism == 1) {
+            fillSegment(instance, pass, 0, slice);
+            return;
+        }
+
+        // lanes of one slice are independent; the slice boundary is a synchronisation point
+        final List<Future<?>> futures = new ArrayList<>(parallelism);
+        for (int lane = 1; lane < parallelism; lane++) {
+            final int l = lane;
+            futures.add(LANES.submit(() -> fillSegment(instance, pass, l, slice)));
+        }
+        fillSegment(instance, pass, 0, slice);
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void fillSegment(final Instance instance, final int pass, final int lane, final int slice) {
+        final long[] memory = instance.memory;
+        final int laneLength = instance.laneLength;
+        final int segmentLength = instance.segmentLength;
+
+        // Argon2id: data-independent addressing in the first half of the first pass
+        final boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+        final long[] zero = new long[BLOCK_WORDS];
+        final long[] inputBlock = new long[BLOCK_WORDS];
+        final long[] addressBlock = new long[BLOCK_WORDS];
+        final long[] r = new long[BLOCK_WORDS];
+        final long[] z = new long[BLOCK_WORDS];
+        if (dataIndependent) {
+            inputBlock[0] = pass;
+            inputBlock[1] = lane;
+            inputBlock[2] = slice;
+            inputBlock[3] = instance.blocks;
+            inputBlock[4] = iterations;
+            inputBlock[5] = TYPE_ID;
+        }
+
+        int startingIndex = 0;
+        if (pass == 0 && slice == 0) {
+            startingIndex = 2;
+            if (dataIndependent)
+                nextAddresses(addressBlock, inputBlock, zero, r, z);
+        }
+
+        int currentOffset = lane * laneLength + slice * segmentLength + startingIndex;
+        int previousOffset = currentOffset % laneLength == 0 ? currentOffset + laneLength - 1 : currentOffset - 1;
+
+        for (int i = startingIndex; i < segmentLength; i++, currentOffset++, previousOffset++) {
+            if (currentOffset % laneLength == 1)
+                previousOffset = currentOffset - 1;
+
+            final long pseudoRandom;
+            if (dataIndependent) {
+                if (i % BLOCK_WORDS == 0)
+                    nextAddresses(addressBlock, inputBlock, zero, r, z);
+                pseudoRandom = addressBlock[i % BLOCK_WORDS];
+            } else {
+                pseudoRandom = memory[previousOffset * BLOCK_WORDS];
+            }
+
+            final int refLane = pass == 0 && slice == 0 ? lane : (int) ((pseudoRandom >>> 32) % parallelism);
+            final int refIndex = indexAlpha(instance, pass, slice, i, pseudoRandom & 0xffffffffL, refLane == lane);
+
+            fillBlock(memory, previousOffset * BLOCK_WORDS, memory, (refLane * laneLength + refIndex) * BLOCK_WORDS,
+                    memory, currentOffset * BLOCK_WORDS, pass != 0, r, z);
+        }
+    }
+
+    private static int indexAlpha(final Instance instance, final int pass, final int slice, final int index,
+                                  final long j1, final boolean sameLane) {
+        final int segmentLength = instance.segmentLength;
+        final long referenceAreaSize;
+        if (pass == 0) {
+            if (slice == 0)
+                referenceAreaSize = index - 1;
+            else if (sameLane)
+                referenceAreaSize = (long) slice * segmentLength + index - 1;
+            else
+                referenceAreaSize = (long) slice * segmentLength + (index == 0 ? -1 : 0);
+        } else {
+            if (sameLane)
+                referenceAreaSize = instance.laneLength - segmentLength + index - 1;
+            else
+                referenceAreaSize = instance.laneLength - segmentLength + (index == 0 ? -1 : 0);
+        }
+
+        long relativePosition = (j1 * j1) >>> 32;
+        relativePosition = referenceAreaSize - 1 - ((referenceAreaSize * relativePosition) >>> 32);
+
+        final long startPosition = pass != 0 && slice != SYNC_POINTS - 1 ? (long) (slice + 1) * segmentLength : 0;
+        return (int) ((startPosition + relativePosition) % instance.laneLength);
+    }
+
+    private static void nextAddresses(final long[] addressBlock, final long[] inputBlock, final long[] zero,
+                                      final long[] r, final long[] z) {
+        inputBlock[6]++;
+        fillBlock(zero, 0, inputBlock, 0, addressBlock, 0, false, r, z);
+        fillBlock(zero, 0, addressBlock, 0, addressBlock, 0, false, r, z);
+    }
+
+    /**
+     * Compression function G: out = P(X xor Y) xor (X xor Y) [xor out].
+     * {@code r} and {@code z} are scratch blocks.
+     */
+    private static void fillBlock(final long[] x, final int xOffset, final long[] y, final int yOffset,
+                                  final long[] out, final int outOffset, final boolean withXor,
+                                  final long[] r, final long[] z) {
+        for (int i = 0; i < BLOCK_WORDS; i++)
+            r[i] = x[xOffset + i] ^ y[yOffset + i];
+        System.arraycopy(r, 0, z, 0, BLOCK_WORDS);
+
+        // rows
+        for (int i = 0; i < 8; i++) {
+            final int b = 16 * i;
+            round(z, b, b + 1, b + 2, b + 3, b + 4, b + 5, b + 6, b + 7,
+                    b + 8, b + 9, b + 10, b + 11, b + 12, b + 13, b + 14, b + 15);
+        }
+        // columns
+        for (int i = 0; i < 8; i++) {
+            final int b = 2 * i;
+            round(z, b, b + 1, b + 16, b + 17, b + 32, b + 33, b + 48, b + 49,
+                    b + 64, b + 65, b + 80, b + 81, b + 96, b + 97, b + 112, b + 113);
+        }
+
+        if (withXor) {
+            for (int i = 0; i < BLOCK_WORDS; i++)
+                out[outOffset + i] ^= z[i] ^ r[i];
+        } else {
+            for (int i = 0; i < BLOCK_WORDS; i++)
+                out[outOffset + i] = z[i] ^ r[i];
+        }
+    }
+
+    private static void round(final long[] v, final int v0, final int v1, final int v2, final int v3,
+                              final int v4, final int v5, final int v6, final int v7,
+                              final int v8, final int v9, final int v10, final int v11,
+                              final int v12, final int v13, final int v14, final int v15) {
+        g(v, v0, v4, v8, v12);
+        g(v, v1, v5, v9, v13);
+        g(v, v2, v6, v10, v14);
+        g(v, v3, v7, v11, v15);
+        g(v, v0, v5, v10, v15);
+        g(v, v1, v6, v11, v12);
+        g(v, v2, v7, v8, v13);
+        g(v, v3, v4, v9, v14);
+    }
+
+    private static void g(final long[] v, final int a, final int b, final int c, final int d) {
+        v[a] = blaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] = blaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] = blaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] = blaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    private static long blaMka(final long x, final long y) {
+        return x + y + 2 * (x & 0xffffffffL) * (y & 0xffffffffL);
+    }
+
+    /**
+     * Variable-length hash function H' of RFC 9106, section 3.3.
+     */
+    private static void hashPrime(final byte[] input, final byte[] out) {
+        final int length = out.length;
+        if (length <= Blake2b.MAX_OUT_BYTES) {
+            new Blake2b(length).updateInt(length).update(input).digest(out, 0);
+            return;
+        }
+
+        final int r = (length + 31) / 32 - 2;
+        byte[] v = new Blake2b(64).updateInt(length).update(input).digest();
+        System.arraycopy(v, 0, out, 0, 32);
+        for (int i = 1; i < r; i++) {
+            v = new Blake2b(64).update(v).digest();
+            System.arraycopy(v, 0, out, 32 * i, 32);
+        }
+        new Blake2b(length - 32 * r).update(v).digest(out, 32 * r);
+    }
+
+    private static void writeInt(final byte[] b, final int offset, final int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >>> 8);
+        b[offset + 2] = (byte) (value >>> 16);
+        b[offset + 3] = (byte) (value >>> 24);
+    }
+
+    public int iterations() {
+        return iterations;
+    }
+
+    public int memoryKiB() {
+        return memoryKiB;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Argon2id(t=%d, m=%d KiB, p=%d)", iterations, memoryKiB, parallelism);
+    }
+}
@@ -0,0 +1,172 @@
+package isp.signatures;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PBKDF2 with an in-memory cache of derived keys, for credentials that are derived over and
+ * over again (repeated unlocks of the same vault, reconnects with the same password).
+ * <p>
+ * Entries are looked up by {@code HMAC-SHA256(k, algorithm || iterations || keyBits || salt || password)},
+ * where {@code k} is a random key that never leaves this instance. Unlike a plain hash, the lookup
+ * key therefore gives nothing to brute-force the password with. The cache holds at most
+ * {@code capacity} keys and evicts the least recently used one first. Evicted key material
+ * is zeroed; the keys handed out to callers are copies.
+ */
+public class DerivedKeyCache {
+
+    private final String algorithm;
+    private final int iterations;
+    private final int keyBits;
+    private final int capacity;
+    private final SecretKeySpec lookupKey;
+    private final LinkedHashMap<ByteBuffer, byte[]> keys;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param algorithm  PBKDF2 algorithm name, e.g. {@link KeyDerivationService#PBKDF2_SHA256}
+     * @param iterations iteration count
+     * @param keyBits    length of the derived key in bits
+     * @param capacity   maximal number of cached keys
+     */
+    public DerivedKeyCache(final String algorithm, final int iterations, final int keyBits, final int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyBits = keyBits;
+        this.capacity = capacity;
+
+        final byte[] k = new byte[32];
+        new SecureRandom().nextBytes(k);
+        this.lookupKey = new SecretKeySpec(k, "HmacSHA256");
+        Arrays.fill(k, (byte) 0);
+
+        // access-ordered map: iteration starts at the least recently used entry
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, byte[]> eldest) {
+                if (size() > DerivedKeyCache.this.capacity) {
+                    Arrays.fill(eldest.getValue(), (byte) 0);
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the key derived from the password and salt, running PBKDF2 only on a cache miss.
+     *
+     * @param password     password
+     * @param salt         salt
+     * @param keyAlgorithm algorithm of the returned key, e.g. "HmacSHA256" or "AES"
+     * @return derived key
+     */
+    public SecretKey derive(final char[] password, final byte[] salt, final String keyAlgorithm)
+            throws GeneralSecurityException {
+        final ByteBuffer id = lookupKey(password, salt);
+
+        synchronized (this) {
+            final byte[] cached = keys.get(id);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return new SecretKeySpec(cached, keyAlgorithm);
+            }
+        }
+        misses.incrementAndGet();
+
+        // derive outside the lock; two threads missing on the same entry both derive it
+        final PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyBits);
+        final byte[] derived;
+        try {
+            derived = SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+
+        synchronized (this) {
+            final byte[] previous = keys.put(id, derived);
+            if (previous != null)
+                Arrays.fill(previous, (byte) 0);
+        }
+        return new SecretKeySpec(derived, keyAlgorithm);
+    }
+
+    private ByteBuffer lookupKey(final char[] password, final byte[] salt) throws GeneralSecurityException {
+        final Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(lookupKey);
+
+        final byte[] params = algorithm.getBytes(StandardCharsets.UTF_8);
+        hmac.update(ByteBuffer.allocate(3 * Integer.BYTES)
+                .putInt(params.length).putInt(iterations).putInt(keyBits).array());
+        hmac.update(params);
+        hmac.update(ByteBuffer.allocate(Integer.BYTES).putInt(salt.length).array());
+        hmac.update(salt);
+
+        final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try {
+            hmac.update(encoded);
+        } finally {
+            encoded.clear();
+            while (encoded.hasRemaining())
+                encoded.put((byte) 0);
+        }
+        return ByteBuffer.wrap(hmac.doFinal());
+    }
+
+    /**
+     * Drops and zeroes all cached keys. Counters are kept.
+     */
+    public synchronized void clear() {
+        keys.values().forEach(k -> Arrays.fill(k, (byte) 0));
+        keys.clear();
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return hits / (hits + misses), or 0 if there were no lookups
+     */
+    public double hitRate() {
+        final long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DerivedKeyCache[%s x %d, size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.2f]",
+                algorithm, iterations, size(), hits(), misses(), evictions(), hitRate());
+    }
+}
@@ -0,0 +1,221 @@
+package isp.signatures;
+
+import fri.isp.Agent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Signing and verifying large files without loading them into memory.
+ * <p>
+ * Streaming mode reads the file through a {@link FileChannel} into a large direct buffer and
+ * feeds it to {@link Signature#update(ByteBuffer)}, so signing costs about as much as
+ * reading the file once.
+ * <p>
+ * Merkle mode splits the file into chunks of {@link #CHUNK_SIZE} bytes, hashes the chunks in
+ * parallel and signs only the root of the Merkle tree over the chunk hashes (together with the
+ * file length and chunk size). Verification recomputes the root in parallel, too. This is also
+ * the way to sign large files with {@link SignatureScheme#ED25519}: pure EdDSA hashes the message
+ * twice, so the JDK buffers the whole message before signing it.
+ * <p>
+ * Leaves are {@code SHA-256(0x00 || chunk)} and inner nodes {@code SHA-256(0x01 || left || right)};
+ * an odd node at the end of a level is promoted unchanged.
+ */
+public class FileSignatures {
+    public static final int BUFFER_SIZE = 1024 * 1024;
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final byte[] MERKLE_LABEL = "isp merkle sha-256".getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * Signs the whole file in a single pass.
+     */
+    public static byte[] sign(final SignatureScheme scheme, final PrivateKey key, final Path file)
+            throws IOException, GeneralSecurityException {
+        final Signature signer = Signature.getInstance(scheme.signatureAlgorithm());
+        signer.initSign(key);
+        update(signer, file);
+        return signer.sign();
+    }
+
+    /**
+     * Verifies a signature created with {@link #sign(SignatureScheme, PrivateKey, Path)}.
+     */
+    public static boolean verify(final SignatureScheme scheme, final PublicKey key, final Path file,
+                                 final byte[] signature) throws IOException, GeneralSecurityException {
+        final Signature verifier = Signature.getInstance(scheme.signatureAlgorithm());
+        verifier.initVerify(key);
+        update(verifier, file);
+        return verifier.verify(signature);
+    }
+
+    private static void update(final Signature signature, final Path file) throws IOException, GeneralSecurityException {
+        final ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                signature.update(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Signs the Merkle root of the file's chunks.
+     */
+    public static byte[] signMerkle(final SignatureScheme scheme, final PrivateKey key, final Path file)
+            throws IOException, GeneralSecurityException {
+        return scheme.signer(key).sign(merkleStatement(file));
+    }
+
+    /**
+     * Verifies a signature created with {@link #signMerkle(SignatureScheme, PrivateKey, Path)}.
+     */
+    public static boolean verifyMerkle(final SignatureScheme scheme, final PublicKey key, final Path file,
+                                       final byte[] signature) throws IOException, GeneralSecurityException {
+        return scheme.verifier(key).verify(merkleStatement(file), signature);
+    }
+
+    /**
+     * @return the data that is actually signed in Merkle mode: label, length, chunk size and root
+     */
+    private static byte[] merkleStatement(final Path file) throws IOException {
+        final long length = Files.size(file);
+        final byte[] root = merkleRoot(file, length);
+        return ByteBuffer.allocate(MERKLE_LABEL.length + Long.BYTES + Integer.BYTES + root.length)
+                .put(MERKLE_LABEL).putLong(length).putInt(CHUNK_SIZE).put(root).array();
+    }
+
+    /**
+     * Computes the Merkle root over the chunks of the file; the chunks are hashed in parallel.
+     */
+    public static byte[] merkleRoot(final Path file, final long length) throws IOException {
+        final int chunks = (int) Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        byte[][] level;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            level = IntStream.range(0, chunks).parallel()
+                    .mapToObj(i -> leaf(channel, (long) i * CHUNK_SIZE, Math.min(CHUNK_SIZE, length - (long) i * CHUNK_SIZE)))
+                    .toArray(byte[][]::new);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final MessageDigest sha = DIGESTS.get();
+        while (level.length > 1) {
+            final byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                if (2 * i + 1 == level.length) {
+                    next[i] = level[2 * i];
+                } else {
+                    sha.update((byte) 1);
+                    sha.update(level[2 * i]);
+                    sha.update(level[2 * i + 1]);
+                    next[i] = sha.digest();
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    private static byte[] leaf(final FileChannel channel, final long offset, final long length) {
+        final MessageDigest sha = DIGESTS.get();
+        final ByteBuffer buffer = BUFFERS.get();
+        sha.update((byte) 0);
+        try {
+            // positional reads do not move the shared channel position, so workers can share it
+            for (long done = 0; done < length; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - done));
+                final int n = channel.read(buffer, offset + done);
+                if (n < 0)
+                    throw new IOException("File shrank while hashing");
+                buffer.flip();
+                sha.update(buffer);
+                done += n;
+            }
+        } catch (IOException e) {
+            // the digest is reused by the next leaf on this thread
+            sha.reset();
+            throw new UncheckedIOException(e);
+        }
+        return sha.digest();
+    }
+
+    /**
+     * Times reading, streaming signing and Merkle signing of a generated file.
+     * Usage: {@code FileSignatures [size in MiB] [scheme]} (defaults: 1024, ECDSA).
+     */
+    public static void main(String[] args) throws Exception {
+        final long size = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+        final SignatureScheme scheme = SignatureScheme.of(args.length > 1 ? args[1] : "ECDSA");
+        final KeyPair kp = scheme.generateKeyPair();
+
+        final Path file = Files.createTempFile("artefact", ".bin");
+        try {
+            final byte[] block = new byte[BUFFER_SIZE];
+            new Random(42).nextBytes(block);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                for (long written = 0; written < size; written += block.length)
+                    channel.write(ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written)));
+            }
+
+            long start = System.nanoTime();
+            final MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    sha.update(buffer);
+                    buffer.clear();
+                }
+            }
+            System.out.printf("read + SHA-256:  %6d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            if (scheme != SignatureScheme.ED25519) {
+                start = System.nanoTime();
+                final byte[] signature = sign(scheme, kp.getPrivate(), file);
+                System.out.printf("streaming sign:  %6d ms%n", (System.nanoTime() - start) / 1_000_000);
+                start = System.nanoTime();
+                final boolean valid = verify(scheme, kp.getPublic(), file, signature);
+                System.out.printf("streaming verify:%6d ms (%s)%n", (System.nanoTime() - start) / 1_000_000, valid);
+            }
+
+            start = System.nanoTime();
+            final byte[] signature = signMerkle(scheme, kp.getPrivate(), file);
+            System.out.printf("Merkle sign:     %6d ms%n", (System.nanoTime() - start) / 1_000_000);
+            start = System.nanoTime();
+            final boolean valid = verifyMerkle(scheme, kp.getPublic(), file, signature);
+            System.out.printf("Merkle verify:   %6d ms (%s)%n", (System.nanoTime() - start) / 1_000_000, valid);
+            System.out.printf("Signature: %s%n", Agent.hex(signature));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -4,11 +4,7 @@ import fri.isp.Agent;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
-import java.security.spec.KeySpec;
 
 public class KeyDerivation {
     public static void main(String[] args) throws Exception {
@@ -18,11 +14,10 @@ public class KeyDerivation {
         // a random, public and fixed string
         final byte[] salt = "89fjh3409fdj390fk".getBytes(StandardCharsets.UTF_8);
 
-        // use PBKDF2 with the password, salt, and number of iterations and required bits
-        final SecretKeyFactory pbkdf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-        final KeySpec specs = new PBEKeySpec(password.toCharArray(), salt,
-                10000, 128);
-        final SecretKey generatedKey = pbkdf.generateSecret(specs);
+        // use PBKDF2 with the password, salt, and number of iterations and required bits;
+        // the cache keeps the result, so deriving the same key again is almost free
+        final DerivedKeyCache cache = new DerivedKeyCache("PBKDF2WithHmacSHA1", 10000, 128, 16);
+        final SecretKey generatedKey = cache.derive(password.toCharArray(), salt, "HmacSHA256");
 
         System.out.printf("key = %s%n", Agent.hex(generatedKey.getEncoded()));
         System.out.printf("len(key) = %d bytes%n", generatedKey.getEncoded().length);
@@ -31,8 +26,17 @@ public class KeyDerivation {
 
         // for example, use the derived key as the HMAC key
         final Mac hmac = Mac.getInstance("HmacSHA256");
-        hmac.init(new SecretKeySpec(generatedKey.getEncoded(), "HmacSHA256"));
+        hmac.init(generatedKey);
         System.out.printf("HMAC[%s] = %s%n", message, Agent.hex(hmac.doFinal(message.getBytes())));
 
+        // later unlocks with the same password are served from the cache
+        for (int i = 0; i < 5; i++) {
+            final long start = System.nanoTime();
+            final SecretKey key = cache.derive(password.toCharArray(), salt, "HmacSHA256");
+            hmac.init(key);
+            System.out.printf("unlock %d: %.2f ms, HMAC[%s] = %s%n", i, (System.nanoTime() - start) / 1e6,
+                    message, Agent.hex(hmac.doFinal(message.getBytes())));
+        }
+        System.out.println(cache);
     }
 }
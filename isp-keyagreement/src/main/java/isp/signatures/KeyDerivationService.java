@@ -0,0 +1,243 @@
+package isp.signatures;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs PBKDF2 password-based key derivations on a bounded pool of worker threads.
+ * <p>
+ * The iteration count is not fixed but calibrated ({@link #calibrate(String, long, int)}) so
+ * that one derivation takes a target time on the current hardware. The work queue has a fixed
+ * capacity: when a burst of logins exceeds it, {@link #derive(char[], byte[])} fails immediately
+ * with a {@link RejectedExecutionException} instead of piling up work that would time out anyway.
+ * <p>
+ * The service counts completed derivations and measures how long requests waited in the queue.
+ */
+public class KeyDerivationService implements AutoCloseable {
+    public static final String PBKDF2_SHA1 = "PBKDF2WithHmacSHA1";
+    public static final String PBKDF2_SHA256 = "PBKDF2WithHmacSHA256";
+    public static final String PBKDF2_SHA512 = "PBKDF2WithHmacSHA512";
+
+    public static final int MIN_ITERATIONS = 10_000;
+    public static final int SALT_LENGTH = 16;
+
+    private final String algorithm;
+    private final int iterations;
+    private final int keyBits;
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<SecretKeyFactory> factories;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final long createdAt = System.nanoTime();
+
+    /**
+     * @param algorithm     one of the PBKDF2 algorithm names
+     * @param iterations    iteration count, see {@link #calibrate(String, long, int)}
+     * @param keyBits       length of the derived key in bits
+     * @param threads       number of worker threads
+     * @param queueCapacity number of requests that may wait for a worker
+     */
+    public KeyDerivationService(final String algorithm, final int iterations, final int keyBits,
+                                final int threads, final int queueCapacity) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyBits = keyBits;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            final Thread t = new Thread(r, "pbkdf2");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.factories = ThreadLocal.withInitial(() -> {
+            try {
+                return SecretKeyFactory.getInstance(algorithm);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Finds the iteration count for which one derivation takes about {@code targetMillis}
+     * on this machine (but never less than {@link #MIN_ITERATIONS}).
+     *
+     * @param algorithm    PBKDF2 algorithm name
+     * @param targetMillis target time of a single derivation
+     * @param keyBits      length of the derived key in bits
+     * @return iteration count
+     */
+    public static int calibrate(final String algorithm, final long targetMillis, final int keyBits)
+            throws GeneralSecurityException {
+        final SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm);
+        final char[] password = "calibration".toCharArray();
+        final byte[] salt = new byte[SALT_LENGTH];
+
+        // warm up the JIT, then time a probe run that is long enough to be measured reliably
+        int probe = MIN_ITERATIONS;
+        derive(factory, password, salt, probe, keyBits);
+        long nanos;
+        while (true) {
+            final long start = System.nanoTime();
+            derive(factory, password, salt, probe, keyBits);
+            nanos = System.nanoTime() - start;
+            if (nanos >= 20_000_000 || probe >= Integer.MAX_VALUE / 4)
+                break;
+            probe *= 2;
+        }
+
+        final double iterationsPerMilli = probe / (nanos / 1e6);
+        return (int) Math.max(MIN_ITERATIONS, Math.min(Integer.MAX_VALUE, iterationsPerMilli * targetMillis));
+    }
+
+    /**
+     * @return a new random salt
+     */
+    public static byte[] newSalt() {
+        final byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Submits a derivation.
+     *
+     * @param password password; the service copies it, so the caller may clear its array
+     * @param salt     salt; copied as well, as it is read on a worker thread
+     * @return future derived key
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public CompletableFuture<SecretKey> derive(final char[] password, final byte[] salt) {
+        final char[] pw = password.clone();
+        final byte[] saltCopy = salt.clone();
+        final long submitted = System.nanoTime();
+        final CompletableFuture<SecretKey> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                final long wait = System.nanoTime() - submitted;
+                started.incrementAndGet();
+                queueWaitNanos.addAndGet(wait);
+                maxQueueWaitNanos.accumulateAndGet(wait, Math::max);
+                try {
+                    final SecretKey key = derive(factories.get(), pw, saltCopy, iterations, keyBits);
+                    completed.incrementAndGet();
+                    future.complete(key);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    Arrays.fill(pw, '\0');
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            Arrays.fill(pw, '\0');
+            throw e;
+        }
+        return future;
+    }
+
+    private static SecretKey derive(final SecretKeyFactory factory, final char[] password, final byte[] salt,
+                                    final int iterations, final int keyBits) throws GeneralSecurityException {
+        final PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyBits);
+        try {
+            return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    public int iterations() {
+        return iterations;
+    }
+
+    public long completed() {
+        return completed.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return average time a request waited for a worker, in milliseconds
+     */
+    public double averageQueueWaitMillis() {
+        final long n = started.get();
+        return n == 0 ? 0 : queueWaitNanos.get() / 1e6 / n;
+    }
+
+    public double maxQueueWaitMillis() {
+        return maxQueueWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * @return completed derivations per second since the service was created
+     */
+    public double derivationsPerSecond() {
+        return completed.get() / ((System.nanoTime() - createdAt) / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s x %d: %d done, %d rejected, %.1f/s, queue wait avg %.1f ms, max %.1f ms",
+                algorithm, iterations, completed(), rejected(), derivationsPerSecond(),
+                averageQueueWaitMillis(), maxQueueWaitMillis());
+    }
+
+    /**
+     * Stops accepting requests and waits up to a minute for the queued ones.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Calibrates each algorithm to a target time and simulates a login burst.
+     * Usage: {@code KeyDerivationService [target ms] [burst size]} (defaults: 50, 200).
+     */
+    public static void main(String[] args) throws Exception {
+        final long targetMillis = args.length > 0 ? Long.parseLong(args[0]) : 50;
+        final int burst = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        for (String algorithm : new String[]{PBKDF2_SHA1, PBKDF2_SHA256, PBKDF2_SHA512}) {
+            final int iterations = calibrate(algorithm, targetMillis, 256);
+            System.out.printf("%s: %d iterations for %d ms%n", algorithm, iterations, targetMillis);
+
+            // the queue holds the whole burst here; a real service would size it from its latency budget
+            try (KeyDerivationService service = new KeyDerivationService(algorithm, iterations, 256, cores, burst)) {
+                final List<CompletableFuture<SecretKey>> keys = new ArrayList<>(burst);
+                for (int i = 0; i < burst; i++)
+                    keys.add(service.derive(("password" + i).toCharArray(), newSalt()));
+                CompletableFuture.allOf(keys.toArray(new CompletableFuture<?>[0])).join();
+                System.out.println("  " + service);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package isp.signatures;
+
+import fri.isp.Agent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Checks {@link Scrypt} and {@link Argon2id} against the RFC test vectors and measures time
+ * and memory per hash for a few parameter sets.
+ * <p>
+ * Usage: {@code PasswordHashBenchmark [rounds]} (default: 5).
+ */
+public class PasswordHashBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        check("BLAKE2b-512(abc)", new Blake2b(64).update("abc".getBytes(StandardCharsets.US_ASCII)).digest(),
+                "ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d1" +
+                        "7d87c5392aab792dc252d5de4533cc9518d38aa8dbf1925ab92386edd4009923");
+        // RFC 7914, section 12
+        check("scrypt(\"\", \"\", 16, 1, 1)", new Scrypt(16, 1, 1, 64).derive(new byte[0], new byte[0]),
+                "77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442" +
+                        "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906");
+        check("scrypt(password, NaCl, 1024, 8, 16)", new Scrypt(1024, 8, 16, 64).derive(
+                "password".getBytes(StandardCharsets.US_ASCII), "NaCl".getBytes(StandardCharsets.US_ASCII)),
+                "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162" +
+                        "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640");
+        // RFC 9106, section 5.3
+        check("Argon2id(m=32, t=3, p=4)", new Argon2id(3, 32, 4, 32).hash(
+                filled(32, 0x01), filled(16, 0x02), filled(8, 0x03), filled(12, 0x04)),
+                "0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659");
+
+        final byte[] password = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+        final byte[] salt = KeyDerivationService.newSalt();
+
+        System.out.printf("%n%-34s %10s %10s%n", "parameters", "memory", "ms/hash");
+        for (int[] params : new int[][]{{1 << 14, 8, 1}, {1 << 15, 8, 1}, {1 << 16, 8, 1}, {1 << 14, 8, 4}}) {
+            final Scrypt scrypt = new Scrypt(params[0], params[1], params[2], 32);
+            // the p mixing steps run one after another and share the same working memory
+            final long memory = 128L * params[1] * params[0];
+            report(scrypt.toString(), memory, time(rounds, () -> scrypt.derive(password, salt)));
+        }
+        for (int[] params : new int[][]{{2, 19 * 1024, 1}, {3, 12 * 1024, 1}, {1, 64 * 1024, 4}, {3, 64 * 1024, 4}}) {
+            final Argon2id argon2 = new Argon2id(params[0], params[1], params[2], 32);
+            final long memory = 1024L * params[1];
+            report(argon2.toString(), memory, time(rounds, () -> argon2.hash(password, salt)));
+        }
+    }
+
+    private interface Hash {
+        byte[] run() throws Exception;
+    }
+
+    /**
+     * @return average milliseconds per hash, after one warm-up run
+     */
+    private static double time(final int rounds, final Hash hash) throws Exception {
+        hash.run();
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            hash.run();
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    private static void report(final String name, final long memoryBytes, final double millis) {
+        System.out.printf("%-34s %7d KiB %10.1f%n", name, memoryBytes / 1024, millis);
+    }
+
+    private static void check(final String name, final byte[] actual, final String expected) {
+        final String hex = Agent.hex(actual);
+        if (!hex.equalsIgnoreCase(expected))
+            throw new IllegalStateException(String.format("%s: expected %s, got %s", name, expected, hex));
+        System.out.printf("%-38s OK%n", name);
+    }
+
+    private static byte[] filled(final int length, final int value) {
+        final byte[] b = new byte[length];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+}
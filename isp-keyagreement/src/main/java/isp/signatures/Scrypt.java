@@ -0,0 +1,206 @@
+package isp.signatures;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * Pure-Java scrypt (RFC 7914), a memory-hard key derivation function.
+ * <p>
+ * One derivation needs {@code 128 * r * N} bytes of memory for each of the {@code p}
+ * independent mixing steps. The working arrays are kept per thread and reused by later
+ * derivations on the same thread.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class Scrypt {
+
+    private static final ThreadLocal<int[][]> MEMORY = ThreadLocal.withInitial(() -> new int[][]{
+            new int[0], new int[0], new int[0], new int[16]});
+
+    private final int n;
+    private final int r;
+    private final int p;
+    private final int keyLength;
+
+    /**
+     * @param n         CPU/memory cost, a power of two greater than 1
+     * @param r         block size
+     * @param p         parallelization parameter
+     * @param keyLength length of the derived key in bytes
+     */
+    public Scrypt(final int n, final int r, final int p, final int keyLength) {
+        if (n < 2 || (n & (n - 1)) != 0)
+            throw new IllegalArgumentException("N must be a power of two greater than 1");
+        if (r < 1 || p < 1 || (long) r * p >= 1 << 30)
+            throw new IllegalArgumentException("Invalid r or p");
+        if ((long) 128 * r * n > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("128 * r * N is too large");
+
+        this.n = n;
+        this.r = r;
+        this.p = p;
+        this.keyLength = keyLength;
+    }
+
+    public byte[] derive(final byte[] password, final byte[] salt) throws GeneralSecurityException {
+        final Mac hmac = Mac.getInstance("HmacSHA256");
+        // SecretKeySpec rejects empty keys; HMAC pads the key with zeros, so {0} is equivalent
+        hmac.init(new SecretKeySpec(password.length == 0 ? new byte[1] : password, "HmacSHA256"));
+
+        final int blockBytes = 128 * r;
+        final byte[] b = pbkdf2(hmac, salt, p * blockBytes);
+
+        final int words = 32 * r;
+        final int[][] memory = MEMORY.get();
+        if (memory[0].length < words * n)
+            memory[0] = new int[words * n];
+        if (memory[1].length < words) {
+            memory[1] = new int[words];
+            memory[2] = new int[words];
+        }
+
+        for (int i = 0; i < p; i++)
+            roMix(b, i * blockBytes, memory[0], memory[1], memory[2], memory[3]);
+
+        return pbkdf2(hmac, b, keyLength);
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 with a single iteration. The JDK's PBKDF2 takes the password as
+     * {@code char[]}, which cannot represent arbitrary bytes, so it is done here with {@link Mac}.
+     */
+    private static byte[] pbkdf2(final Mac hmac, final byte[] salt, final int length) {
+        final byte[] out = new byte[length];
+        for (int block = 1, offset = 0; offset < length; block++) {
+            hmac.update(salt);
+            hmac.update(new byte[]{(byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block});
+            final byte[] u = hmac.doFinal();
+            final int len = Math.min(u.length, length - offset);
+            System.arraycopy(u, 0, out, offset, len);
+            offset += len;
+        }
+        return out;
+    }
+
+    private void roMix(final byte[] b, final int offset, final int[] v, final int[] x, final int[] y, final int[] t) {
+        final int words = 32 * r;
+        for (int i = 0; i < words; i++) {
+            final int o = offset + 4 * i;
+            x[i] = (b[o] & 0xff) | (b[o + 1] & 0xff) << 8 | (b[o + 2] & 0xff) << 16 | (b[o + 3] & 0xff) << 24;
+        }
+
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * words, words);
+            blockMix(x, y, t);
+        }
+        for (int i = 0; i < n; i++) {
+            // Integerify: first word of the last 64-byte block
+            final int j = x[(2 * r - 1) * 16] & (n - 1);
+            final int vOffset = j * words;
+            for (int k = 0; k < words; k++)
+                x[k] ^= v[vOffset + k];
+            blockMix(x, y, t);
+        }
+
+        for (int i = 0; i < words; i++) {
+            final int o = offset + 4 * i;
+            b[o] = (byte) x[i];
+            b[o + 1] = (byte) (x[i] >>> 8);
+            b[o + 2] = (byte) (x[i] >>> 16);
+            b[o + 3] = (byte) (x[i] >>> 24);
+        }
+    }
+
+    /**
+     * scryptBlockMix: in-place on {@code b}, using {@code y} and {@code t} as scratch space.
+     */
+    private void blockMix(final int[] b, final int[] y, final int[] t) {
+        System.arraycopy(b, (2 * r - 1) * 16, t, 0, 16);
+
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++)
+                t[k] ^= b[i * 16 + k];
+            salsa20_8(t);
+            // even blocks go to the first half of the output, odd ones to the second
+            System.arraycopy(t, 0, y, ((i & 1) * r + (i >>> 1)) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa20_8(final int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7],
+                x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+
+        for (int i = 0; i < 8; i += 2) {
+            // columns
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            // rows
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        b[0] += x0;
+        b[1] += x1;
+        b[2] += x2;
+        b[3] += x3;
+        b[4] += x4;
+        b[5] += x5;
+        b[6] += x6;
+        b[7] += x7;
+        b[8] += x8;
+        b[9] += x9;
+        b[10] += x10;
+        b[11] += x11;
+        b[12] += x12;
+        b[13] += x13;
+        b[14] += x14;
+        b[15] += x15;
+    }
+
+    public int n() {
+        return n;
+    }
+
+    public int r() {
+        return r;
+    }
+
+    public int p() {
+        return p;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("scrypt(N=%d, r=%d, p=%d)", n, r, p);
+    }
+}
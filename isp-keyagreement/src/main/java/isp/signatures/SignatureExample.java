@@ -4,21 +4,16 @@ import fri.isp.Agent;
 
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.Signature;
 
 public class SignatureExample {
     public static void main(String[] args) throws Exception {
 
         // https://docs.oracle.com/javase/8/docs/technotes/guides/security/StandardNames.html#Signature
-        final String signingAlgorithm =
-                "SHA256withRSA";
-//         "SHA256withDSA";
-//        "SHA256withECDSA";
-        final String keyAlgorithm =
-                "RSA";
-//         "DSA";
-//         "EC";
+        // Select the scheme by name: RSA, DSA, ECDSA or ED25519 (JDK 15+)
+        final SignatureScheme scheme = SignatureScheme.of(args.length > 0 ? args[0] : "RSA");
+        final String signingAlgorithm = scheme.signatureAlgorithm();
+        System.out.println("Scheme: " + signingAlgorithm);
 
 
         // The message we want to sign
@@ -29,7 +24,7 @@ public class SignatureExample {
          * We create a public-private key pair using standard algorithm names
          * http://docs.oracle.com/javase/8/docs/technotes/guides/security/StandardNames.html
          */
-        final KeyPair key = KeyPairGenerator.getInstance(keyAlgorithm).generateKeyPair();
+        final KeyPair key = scheme.generateKeyPair();
 
         /*
          * Alice creates Signature object defining Signature algorithm.
@@ -0,0 +1,113 @@
+package isp.signatures;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.NamedParameterSpec;
+
+/**
+ * Signature schemes that can be selected by name instead of commenting code in and out.
+ * <p>
+ * {@link #ED25519} (EdDSA over Curve25519) needs JDK 15 or newer. Unlike (EC)DSA, it derives
+ * the per-signature nonce deterministically from the key and the message, so signing does
+ * not depend on the quality of the random number generator.
+ * <p>
+ * {@link Signer} and {@link Verifier} initialise their {@link Signature} object once and keep
+ * that state across messages; they are not thread-safe, so use one per thread.
+ */
+public enum SignatureScheme {
+    RSA("SHA256withRSA", "RSA", null, 2048),
+    DSA("SHA256withDSA", "DSA", null, 2048),
+    ECDSA("SHA256withECDSA", "EC", new ECGenParameterSpec("secp256r1"), 0),
+    ED25519("Ed25519", "Ed25519", new NamedParameterSpec("Ed25519"), 0);
+
+    private final String signatureAlgorithm;
+    private final String keyAlgorithm;
+    private final AlgorithmParameterSpec keyParameters;
+    private final int keySize;
+
+    SignatureScheme(final String signatureAlgorithm, final String keyAlgorithm,
+                    final AlgorithmParameterSpec keyParameters, final int keySize) {
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keyParameters = keyParameters;
+        this.keySize = keySize;
+    }
+
+    /**
+     * Looks the scheme up by its enum name or its JCA signature algorithm name
+     * (e.g. "ECDSA" or "SHA256withECDSA"), ignoring case.
+     */
+    public static SignatureScheme of(final String name) {
+        for (SignatureScheme scheme : values())
+            if (scheme.name().equalsIgnoreCase(name) || scheme.signatureAlgorithm.equalsIgnoreCase(name))
+                return scheme;
+        throw new IllegalArgumentException("Unknown signature scheme: " + name);
+    }
+
+    public String signatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    public String keyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public KeyPair generateKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance(keyAlgorithm);
+        if (keyParameters != null)
+            kpg.initialize(keyParameters, new SecureRandom());
+        else
+            kpg.initialize(keySize);
+        return kpg.generateKeyPair();
+    }
+
+    public Signer signer(final PrivateKey key) throws GeneralSecurityException {
+        return new Signer(this, key);
+    }
+
+    public Verifier verifier(final PublicKey key) throws GeneralSecurityException {
+        return new Verifier(this, key);
+    }
+
+    /**
+     * Signs messages with one private key.
+     */
+    public static final class Signer {
+        private final Signature signature;
+
+        private Signer(final SignatureScheme scheme, final PrivateKey key) throws GeneralSecurityException {
+            this.signature = Signature.getInstance(scheme.signatureAlgorithm);
+            this.signature.initSign(key);
+        }
+
+        public byte[] sign(final byte[] message) throws GeneralSecurityException {
+            signature.update(message);
+            // sign() resets the object to the state right after initSign()
+            return signature.sign();
+        }
+    }
+
+    /**
+     * Verifies signatures of one public key.
+     */
+    public static final class Verifier {
+        private final Signature signature;
+
+        private Verifier(final SignatureScheme scheme, final PublicKey key) throws GeneralSecurityException {
+            this.signature = Signature.getInstance(scheme.signatureAlgorithm);
+            this.signature.initVerify(key);
+        }
+
+        public boolean verify(final byte[] message, final byte[] sig) throws GeneralSecurityException {
+            signature.update(message);
+            return signature.verify(sig);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package isp.signatures;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+
+/**
+ * Compares sign and verify rates, and key and signature sizes, of all {@link SignatureScheme}s.
+ * Schemes that the running JDK does not support (Ed25519 before JDK 15) are skipped.
+ * Usage: {@code SignatureSchemeBenchmark [seconds per measurement]} (default 2).
+ */
+public class SignatureSchemeBenchmark {
+    public static void main(String[] args) throws Exception {
+        final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        final byte[] message = new byte[64];
+        new SecureRandom().nextBytes(message);
+
+        System.out.printf("%-16s %10s %10s %8s %8s%n", "scheme", "sign/s", "verify/s", "sig [B]", "pk [B]");
+        for (SignatureScheme scheme : SignatureScheme.values()) {
+            final KeyPair kp;
+            try {
+                kp = scheme.generateKeyPair();
+            } catch (GeneralSecurityException e) {
+                System.out.printf("%-16s not supported by this JDK (%s)%n", scheme.signatureAlgorithm(), e.getMessage());
+                continue;
+            }
+
+            final SignatureScheme.Signer signer = scheme.signer(kp.getPrivate());
+            final SignatureScheme.Verifier verifier = scheme.verifier(kp.getPublic());
+            final byte[] signature = signer.sign(message);
+            if (!verifier.verify(message, signature))
+                throw new IllegalStateException(scheme + ": signature does not verify");
+
+            // warm-up, then measure
+            rate(seconds / 10, () -> signer.sign(message));
+            final double signRate = rate(seconds, () -> signer.sign(message));
+            rate(seconds / 10, () -> verifier.verify(message, signature));
+            final double verifyRate = rate(seconds, () -> verifier.verify(message, signature));
+
+            System.out.printf("%-16s %10.0f %10.0f %8d %8d%n", scheme.signatureAlgorithm(), signRate, verifyRate,
+                    signature.length, kp.getPublic().getEncoded().length);
+        }
+    }
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    private static double rate(final double seconds, final Operation operation) throws Exception {
+        final long budget = (long) (seconds * 1e9);
+        final long start = System.nanoTime();
+        long count = 0, elapsed;
+        do {
+            operation.run();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return count / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,242 @@
+package isp.signatures;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies streams of (message, signature, public key) jobs on a pool of worker threads.
+ * <p>
+ * {@link Signature} objects are not thread-safe, but creating one per job is wasteful, so
+ * each worker keeps its own instance in a {@link ThreadLocal}. Public keys arrive in their
+ * X.509 encoding (as they would over the network) and are parsed only once: parsed keys are
+ * cached by encoding, up to {@code keyCapacity} of them, evicting the least recently used.
+ */
+public class SignatureVerificationService implements AutoCloseable {
+
+    /**
+     * A single verification request.
+     */
+    public static final class Job {
+        final byte[] message;
+        final byte[] signature;
+        final byte[] publicKey;
+
+        /**
+         * @param message   signed data
+         * @param signature signature to check
+         * @param publicKey X.509 encoded public key of the signer
+         */
+        public Job(final byte[] message, final byte[] signature, final byte[] publicKey) {
+            this.message = message;
+            this.signature = signature;
+            this.publicKey = publicKey;
+        }
+    }
+
+    /**
+     * Public keys cached unless configured otherwise.
+     */
+    public static final int DEFAULT_KEY_CAPACITY = 1024;
+
+    private final String algorithm;
+    private final String keyAlgorithm;
+    private final ExecutorService workers;
+    private final ThreadLocal<Signature> verifiers;
+    private final LinkedHashMap<ByteBuffer, PublicKey> keys;
+
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param algorithm    signature algorithm, e.g. SHA256withECDSA
+     * @param keyAlgorithm algorithm of the public keys, e.g. EC
+     * @param threads      number of worker threads
+     */
+    public SignatureVerificationService(final String algorithm, final String keyAlgorithm, final int threads) {
+        this(algorithm, keyAlgorithm, threads, DEFAULT_KEY_CAPACITY);
+    }
+
+    /**
+     * @param algorithm    signature algorithm, e.g. SHA256withECDSA
+     * @param keyAlgorithm algorithm of the public keys, e.g. EC
+     * @param threads      number of worker threads
+     * @param keyCapacity  maximal number of cached public keys
+     */
+    public SignatureVerificationService(final String algorithm, final String keyAlgorithm, final int threads,
+                                        final int keyCapacity) {
+        if (keyCapacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        // access-ordered map: iteration starts at the least recently used entry
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, PublicKey> eldest) {
+                return size() > keyCapacity;
+            }
+        };
+        this.algorithm = algorithm;
+        this.keyAlgorithm = keyAlgorithm;
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, "verifier");
+            t.setDaemon(true);
+            return t;
+        });
+        this.verifiers = ThreadLocal.withInitial(() -> {
+            try {
+                return Signature.getInstance(algorithm);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Submits a job.
+     *
+     * @return future that completes with the verification result; malformed keys and
+     * signatures count as invalid
+     */
+    public CompletableFuture<Boolean> submit(final Job job) {
+        return CompletableFuture.supplyAsync(() -> verify(job), workers);
+    }
+
+    /**
+     * Verifies all jobs and waits for the results.
+     *
+     * @return results in the order of the jobs
+     */
+    public boolean[] verifyAll(final List<Job> jobs) {
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>(jobs.size());
+        for (Job job : jobs)
+            futures.add(submit(job));
+
+        final boolean[] results = new boolean[jobs.size()];
+        for (int i = 0; i < results.length; i++)
+            results[i] = futures.get(i).join();
+        return results;
+    }
+
+    private boolean verify(final Job job) {
+        try {
+            final Signature verifier = verifiers.get();
+            verifier.initVerify(publicKey(job.publicKey));
+            verifier.update(job.message);
+            if (verifier.verify(job.signature)) {
+                verified.incrementAndGet();
+                return true;
+            }
+        } catch (GeneralSecurityException e) {
+            // a malformed key or signature is simply an invalid signature
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    private PublicKey publicKey(final byte[] encoded) throws GeneralSecurityException {
+        synchronized (keys) {
+            final PublicKey cached = keys.get(ByteBuffer.wrap(encoded));
+            if (cached != null)
+                return cached;
+        }
+
+        // parsed outside of the lock; two workers may parse the same new key, the later one wins
+        final PublicKey key = KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(encoded));
+        synchronized (keys) {
+            keys.put(ByteBuffer.wrap(encoded.clone()), key);
+        }
+        return key;
+    }
+
+    public long verified() {
+        return verified.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public int cachedKeys() {
+        synchronized (keys) {
+            return keys.size();
+        }
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Stops accepting jobs and waits up to a minute for the submitted ones.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reports verifications per second of SHA256withECDSA (secp256r1) for 1 to all cores.
+     */
+    public static void main(String[] args) throws Exception {
+        final int jobCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        final int signers = 16;
+
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+        kpg.initialize(new ECGenParameterSpec("secp256r1"), new SecureRandom());
+        final KeyPair[] keyPairs = new KeyPair[signers];
+        for (int i = 0; i < signers; i++)
+            keyPairs[i] = kpg.generateKeyPair();
+
+        // messages signed by a handful of signers, as in a stream of agent messages
+        final Signature signer = Signature.getInstance("SHA256withECDSA");
+        final List<Job> jobs = new ArrayList<>(jobCount);
+        for (int i = 0; i < jobCount; i++) {
+            final KeyPair kp = keyPairs[i % signers];
+            final byte[] message = String.format("Message number %d", i).getBytes();
+            signer.initSign(kp.getPrivate());
+            signer.update(message);
+            jobs.add(new Job(message, signer.sign(), kp.getPublic().getEncoded()));
+        }
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%8s %14s%n", "threads", "verify/s");
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            try (SignatureVerificationService service =
+                         new SignatureVerificationService("SHA256withECDSA", "EC", threads)) {
+                // warm-up
+                service.verifyAll(jobs.subList(0, Math.min(2_000, jobCount)));
+
+                final long start = System.nanoTime();
+                final boolean[] results = service.verifyAll(jobs);
+                final double elapsed = (System.nanoTime() - start) / 1e9;
+
+                for (boolean result : results)
+                    if (!result)
+                        throw new IllegalStateException("Valid signature rejected");
+                System.out.printf("%8d %14.0f%n", threads, jobCount / elapsed);
+            }
+            if (threads == cores)
+                break;
+        }
+    }
+}
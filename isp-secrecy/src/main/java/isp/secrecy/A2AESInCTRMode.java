@@ -7,6 +7,8 @@ import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.spec.IvParameterSpec;
 import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
  * TASK:
@@ -24,6 +26,7 @@ public class A2AESInCTRMode {
         // STEP 2: Setup communication
         final Environment env = new Environment();
         final int messageCount = 10;
+        final int bulkSize = 64 * 1024 * 1024;
 
         env.add(new Agent("alice") {
             @Override
@@ -51,6 +54,15 @@ public class A2AESInCTRMode {
                     System.out.println("[ALICE]\t" + "Sending CT: " + hex(ct));
                     send("bob", ct);
                 }
+
+                // bulk data: a fresh IV, encrypted in parallel
+                final byte[] bulkIv = new byte[ParallelCTR.BLOCK_SIZE];
+                new SecureRandom().nextBytes(bulkIv);
+                final byte[] bulk = new byte[bulkSize];
+                new SecureRandom().nextBytes(bulk);
+                send("bob", bulkIv);
+                send("bob", new ParallelCTR(key, bulkIv).process(bulk));
+                System.out.println("[ALICE]\t" + "Sent " + bulkSize + " bytes, tail: " + hex(Arrays.copyOfRange(bulk, bulkSize - 16, bulkSize)));
             }
         });
 
@@ -80,6 +92,19 @@ public class A2AESInCTRMode {
                     final byte[] dt = (i == messageCount-1)? decrypt.doFinal(ct) : decrypt.update(ct);
                     System.out.println("[BOB]\t" + new String(dt));
                 }
+
+                final byte[] bulkIv = receive("alice");
+                final ParallelCTR bulk = new ParallelCTR(key, bulkIv);
+                final byte[] ct = receive("alice");
+                // the tail can be read without decrypting what comes before it
+                System.out.println("[BOB]\t" + "Received " + ct.length + " bytes, tail: " + hex(bulk.decryptRange(ct, ct.length - 16, 16)));
+
+                // the parallel decryption gives the same plaintext as a single JCE cipher
+                final Cipher jce = Cipher.getInstance("AES/CTR/NoPadding");
+                jce.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(bulkIv));
+                final byte[] expected = jce.doFinal(ct);
+                bulk.process(ct, 0, ct.length, ct, 0);
+                System.out.println("[BOB]\t" + "Parallel decryption matches JCE: " + Arrays.equals(ct, expected));
             }
         });
 
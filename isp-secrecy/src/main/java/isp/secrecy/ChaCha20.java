@@ -0,0 +1,277 @@
+package isp.secrecy;
+
+/**
+ * Pure-Java ChaCha20 (RFC 8439), by default one keystream block at a time.
+ * <p>
+ * With {@code lanes > 1} (experimental), the state of {@code lanes} consecutive blocks is kept as
+ * 16 arrays of {@code lanes} words (word {@code w} of block {@code l} is {@code x[w][l]}), and
+ * every step of the quarter round is a loop over the lanes, free of dependencies between them.
+ * The hope was that HotSpot's superword optimization would turn these loops into SIMD
+ * instructions, but {@link ChaCha20Benchmark} has not shown it doing so: in the measurements so
+ * far, 4 lanes are the slowest option and 8 lanes are no faster than scalar code. The path is kept so that the
+ * benchmark can be re-run on other JVMs and hardware.
+ * <p>
+ * Instances encrypt (or decrypt) one continuous stream and are not thread-safe.
+ */
+public final class ChaCha20 {
+    public static final int BLOCK_SIZE = 64;
+
+    /**
+     * Default number of blocks per batch, from {@code -Disp.chacha20.lanes} (1, 4 or 8), which lets
+     * the code using ChaCha20 be measured with the experimental lanes without changing it. Scalar
+     * unless set: in {@link ChaCha20Benchmark} it is the fastest for ChaCha20 and on par with
+     * 8 lanes for ChaCha20-Poly1305, while 4 lanes is the slowest for both.
+     */
+    public static final int DEFAULT_LANES = Integer.getInteger("isp.chacha20.lanes", 1);
+
+    /**
+     * Blocks of keystream a nonce provides: the block counter has 32 bits.
+     */
+    private static final long MAX_BLOCKS = 1L << 32;
+
+    private static final int[] SIGMA = {0x61707865, 0x3320646e, 0x79622d32, 0x6b206574};
+
+    private final int[] input = new int[16];
+    private final int lanes;
+    private final int[][] x;
+    private final byte[] keystream;
+    private int filled;
+    private int available;
+    private long counter;
+
+    /**
+     * @param key     32-byte key
+     * @param nonce   12-byte nonce
+     * @param counter initial block counter
+     * @param lanes   blocks computed per batch: 1 (scalar), or 4 or 8 (experimental)
+     */
+    public ChaCha20(final byte[] key, final byte[] nonce, final int counter, final int lanes) {
+        if (key.length != 32)
+            throw new IllegalArgumentException("Key must be 32 bytes");
+        if (nonce.length != 12)
+            throw new IllegalArgumentException("Nonce must be 12 bytes");
+        if (lanes != 1 && lanes != 4 && lanes != 8)
+            throw new IllegalArgumentException("Lanes must be 1, 4 or 8");
+
+        System.arraycopy(SIGMA, 0, input, 0, 4);
+        for (int i = 0; i < 8; i++)
+            input[4 + i] = littleEndian(key, 4 * i);
+        for (int i = 0; i < 3; i++)
+            input[13 + i] = littleEndian(nonce, 4 * i);
+
+        this.lanes = lanes;
+        this.x = new int[16][lanes];
+        this.keystream = new byte[lanes * BLOCK_SIZE];
+        this.counter = counter & 0xffffffffL;
+    }
+
+    public ChaCha20(final byte[] key, final byte[] nonce, final int counter) {
+        this(key, nonce, counter, DEFAULT_LANES);
+    }
+
+    /**
+     * XORs the next {@code length} bytes of keystream into {@code in} and writes the result
+     * to {@code out}; {@code in} and {@code out} may be the same array.
+     */
+    public void process(final byte[] in, int inOffset, int length, final byte[] out, int outOffset) {
+        final int batch = keystream.length;
+        while (length > 0) {
+            if (available == 0) {
+                // whole batches straight from the input to the output
+                while (length >= batch && counter + lanes <= MAX_BLOCKS) {
+                    nextBatch();
+                    for (int i = 0; i < batch; i++)
+                        out[outOffset + i] = (byte) (in[inOffset + i] ^ keystream[i]);
+                    inOffset += batch;
+                    outOffset += batch;
+                    length -= batch;
+                }
+                if (length == 0)
+                    break;
+                available = nextBatch();
+            }
+
+            final int start = filled - available;
+            final int n = Math.min(length, available);
+            for (int i = 0; i < n; i++)
+                out[outOffset + i] = (byte) (in[inOffset + i] ^ keystream[start + i]);
+            available -= n;
+            inOffset += n;
+            outOffset += n;
+            length -= n;
+        }
+    }
+
+    public byte[] process(final byte[] in) {
+        final byte[] out = new byte[in.length];
+        process(in, 0, in.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Fills {@link #keystream} with the next {@link #lanes} blocks, or the blocks left before the
+     * counter runs out; lanes past the last block are computed but not used.
+     *
+     * @return number of keystream bytes
+     */
+    private int nextBatch() {
+        final long blocks = Math.min(lanes, MAX_BLOCKS - counter);
+        if (blocks <= 0)
+            throw new IllegalStateException("Block counter overflow");
+        if (lanes == 1)
+            block(input, (int) counter, keystream, 0);
+        else
+            blocks(input, (int) counter, x, keystream);
+        counter += blocks;
+        filled = (int) blocks * BLOCK_SIZE;
+        return filled;
+    }
+
+    /**
+     * One block, scalar.
+     */
+    static void block(final int[] input, final int counter, final byte[] out, final int offset) {
+        int x0 = input[0], x1 = input[1], x2 = input[2], x3 = input[3], x4 = input[4], x5 = input[5],
+                x6 = input[6], x7 = input[7], x8 = input[8], x9 = input[9], x10 = input[10], x11 = input[11],
+                x12 = counter, x13 = input[13], x14 = input[14], x15 = input[15];
+
+        for (int i = 0; i < 10; i++) {
+            // columns
+            x0 += x4;
+            x12 = Integer.rotateLeft(x12 ^ x0, 16);
+            x8 += x12;
+            x4 = Integer.rotateLeft(x4 ^ x8, 12);
+            x0 += x4;
+            x12 = Integer.rotateLeft(x12 ^ x0, 8);
+            x8 += x12;
+            x4 = Integer.rotateLeft(x4 ^ x8, 7);
+            x1 += x5;
+            x13 = Integer.rotateLeft(x13 ^ x1, 16);
+            x9 += x13;
+            x5 = Integer.rotateLeft(x5 ^ x9, 12);
+            x1 += x5;
+            x13 = Integer.rotateLeft(x13 ^ x1, 8);
+            x9 += x13;
+            x5 = Integer.rotateLeft(x5 ^ x9, 7);
+            x2 += x6;
+            x14 = Integer.rotateLeft(x14 ^ x2, 16);
+            x10 += x14;
+            x6 = Integer.rotateLeft(x6 ^ x10, 12);
+            x2 += x6;
+            x14 = Integer.rotateLeft(x14 ^ x2, 8);
+            x10 += x14;
+            x6 = Integer.rotateLeft(x6 ^ x10, 7);
+            x3 += x7;
+            x15 = Integer.rotateLeft(x15 ^ x3, 16);
+            x11 += x15;
+            x7 = Integer.rotateLeft(x7 ^ x11, 12);
+            x3 += x7;
+            x15 = Integer.rotateLeft(x15 ^ x3, 8);
+            x11 += x15;
+            x7 = Integer.rotateLeft(x7 ^ x11, 7);
+            // diagonals
+            x0 += x5;
+            x15 = Integer.rotateLeft(x15 ^ x0, 16);
+            x10 += x15;
+            x5 = Integer.rotateLeft(x5 ^ x10, 12);
+            x0 += x5;
+            x15 = Integer.rotateLeft(x15 ^ x0, 8);
+            x10 += x15;
+            x5 = Integer.rotateLeft(x5 ^ x10, 7);
+            x1 += x6;
+            x12 = Integer.rotateLeft(x12 ^ x1, 16);
+            x11 += x12;
+            x6 = Integer.rotateLeft(x6 ^ x11, 12);
+            x1 += x6;
+            x12 = Integer.rotateLeft(x12 ^ x1, 8);
+            x11 += x12;
+            x6 = Integer.rotateLeft(x6 ^ x11, 7);
+            x2 += x7;
+            x13 = Integer.rotateLeft(x13 ^ x2, 16);
+            x8 += x13;
+            x7 = Integer.rotateLeft(x7 ^ x8, 12);
+            x2 += x7;
+            x13 = Integer.rotateLeft(x13 ^ x2, 8);
+            x8 += x13;
+            x7 = Integer.rotateLeft(x7 ^ x8, 7);
+            x3 += x4;
+            x14 = Integer.rotateLeft(x14 ^ x3, 16);
+            x9 += x14;
+            x4 = Integer.rotateLeft(x4 ^ x9, 12);
+            x3 += x4;
+            x14 = Integer.rotateLeft(x14 ^ x3, 8);
+            x9 += x14;
+            x4 = Integer.rotateLeft(x4 ^ x9, 7);
+        }
+
+        putLittleEndian(out, offset, x0 + input[0]);
+        putLittleEndian(out, offset + 4, x1 + input[1]);
+        putLittleEndian(out, offset + 8, x2 + input[2]);
+        putLittleEndian(out, offset + 12, x3 + input[3]);
+        putLittleEndian(out, offset + 16, x4 + input[4]);
+        putLittleEndian(out, offset + 20, x5 + input[5]);
+        putLittleEndian(out, offset + 24, x6 + input[6]);
+        putLittleEndian(out, offset + 28, x7 + input[7]);
+        putLittleEndian(out, offset + 32, x8 + input[8]);
+        putLittleEndian(out, offset + 36, x9 + input[9]);
+        putLittleEndian(out, offset + 40, x10 + input[10]);
+        putLittleEndian(out, offset + 44, x11 + input[11]);
+        putLittleEndian(out, offset + 48, x12 + counter);
+        putLittleEndian(out, offset + 52, x13 + input[13]);
+        putLittleEndian(out, offset + 56, x14 + input[14]);
+        putLittleEndian(out, offset + 60, x15 + input[15]);
+    }
+
+    /**
+     * {@code x[0].length} consecutive blocks starting at {@code counter}, one per lane.
+     */
+    static void blocks(final int[] input, final int counter, final int[][] x, final byte[] out) {
+        final int lanes = x[0].length;
+        for (int w = 0; w < 16; w++)
+            for (int l = 0; l < lanes; l++)
+                x[w][l] = input[w];
+        for (int l = 0; l < lanes; l++)
+            x[12][l] = counter + l;
+
+        for (int i = 0; i < 10; i++) {
+            quarterRound(x[0], x[4], x[8], x[12], lanes);
+            quarterRound(x[1], x[5], x[9], x[13], lanes);
+            quarterRound(x[2], x[6], x[10], x[14], lanes);
+            quarterRound(x[3], x[7], x[11], x[15], lanes);
+            quarterRound(x[0], x[5], x[10], x[15], lanes);
+            quarterRound(x[1], x[6], x[11], x[12], lanes);
+            quarterRound(x[2], x[7], x[8], x[13], lanes);
+            quarterRound(x[3], x[4], x[9], x[14], lanes);
+        }
+
+        for (int l = 0; l < lanes; l++) {
+            final int offset = l * BLOCK_SIZE;
+            for (int w = 0; w < 16; w++)
+                putLittleEndian(out, offset + 4 * w, x[w][l] + (w == 12 ? counter + l : input[w]));
+        }
+    }
+
+    private static void quarterRound(final int[] a, final int[] b, final int[] c, final int[] d, final int lanes) {
+        for (int l = 0; l < lanes; l++) {
+            a[l] += b[l];
+            d[l] = Integer.rotateLeft(d[l] ^ a[l], 16);
+            c[l] += d[l];
+            b[l] = Integer.rotateLeft(b[l] ^ c[l], 12);
+            a[l] += b[l];
+            d[l] = Integer.rotateLeft(d[l] ^ a[l], 8);
+            c[l] += d[l];
+            b[l] = Integer.rotateLeft(b[l] ^ c[l], 7);
+        }
+    }
+
+    static int littleEndian(final byte[] b, final int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+
+    static void putLittleEndian(final byte[] b, final int offset, final int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >>> 8);
+        b[offset + 2] = (byte) (value >>> 16);
+        b[offset + 3] = (byte) (value >>> 24);
+    }
+}
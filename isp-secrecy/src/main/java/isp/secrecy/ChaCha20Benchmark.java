@@ -0,0 +1,109 @@
+package isp.secrecy;
+
+import fri.isp.Agent;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.ChaCha20ParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Checks {@link ChaCha20} and {@link ChaCha20Poly1305} against the RFC 8439 test vectors and
+ * compares their throughput (scalar, 4 and 8 lanes) with the JDK's provider.
+ * Usage: {@code ChaCha20Benchmark [size in MiB]} (default: 64).
+ */
+public class ChaCha20Benchmark {
+    private static final byte[] SUNSCREEN = ("Ladies and Gentlemen of the class of '99: If I could offer you " +
+            "only one tip for the future, sunscreen would be it.").getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 64) * 1024 * 1024;
+
+        for (int lanes : new int[]{1, 4, 8}) {
+            // RFC 8439, section 2.4.2
+            check("ChaCha20 (" + lanes + " lanes)", new ChaCha20(sequence(0, 32),
+                            unhex("000000000000004a00000000"), 1, lanes).process(SUNSCREEN),
+                    "6e2e359a2568f98041ba0728dd0d6981e97e7aec1d4360c20a27afccfd9fae0b" +
+                            "f91b65c5524733ab8f593dabcd62b3571639d624e65152ab8f530c359f0861d8" +
+                            "07ca0dbf500d6a6156a38e088a22b65e52bc514d16ccf806818ce91ab7793736" +
+                            "5af90bbf74a35be6b40b8eedf2785e42874d");
+            // RFC 8439, section 2.8.2
+            check("ChaCha20-Poly1305 (" + lanes + " lanes)", new ChaCha20Poly1305(sequence(0x80, 32), lanes)
+                            .encrypt(unhex("070000004041424344454647"), unhex("50515253c0c1c2c3c4c5c6c7"), SUNSCREEN),
+                    "d31a8d34648e60db7b86afbc53ef7ec2a4aded51296e08fea9e2b5a736ee62d6" +
+                            "3dbea45e8ca9671282fafb69da92728b1a71de0a9e060b2905d6a5b67ecd3b36" +
+                            "92ddbd7f2d778b8c9803aee328091b58fab324e4fad675945585808b4831d7bc" +
+                            "3ff4def08e4b7a9de576d26586cec64b61161ae10b594f09e26a7e902ecbd0600691");
+        }
+        // RFC 8439, section 2.5.2
+        final Poly1305 poly = new Poly1305(unhex("85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b"));
+        final byte[] message = "Cryptographic Forum Research Group".getBytes(StandardCharsets.US_ASCII);
+        poly.update(message, 0, message.length);
+        final byte[] tag = new byte[Poly1305.TAG_LENGTH];
+        poly.finish(tag, 0);
+        check("Poly1305", tag, "a8061dc1305136c6c22b8baf0c0127a9");
+
+        final byte[] key = new byte[32];
+        final byte[] nonce = new byte[12];
+        final byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        final byte[] out = new byte[size + ChaCha20Poly1305.TAG_LENGTH];
+        final SecretKeySpec jdkKey = new SecretKeySpec(key, "ChaCha20");
+
+        System.out.printf("%n%-24s %12s %18s%n", "", "ChaCha20", "ChaCha20-Poly1305");
+        for (int round = 0; round < 3; round++) {
+            final boolean print = round == 2; // the first rounds warm up the JIT
+            for (int lanes : new int[]{1, 4, 8}) {
+                long start = System.nanoTime();
+                new ChaCha20(key, nonce, 1, lanes).process(data, 0, size, out, 0);
+                final double stream = mibPerSecond(size, start);
+                start = System.nanoTime();
+                new ChaCha20Poly1305(key, lanes).encrypt(nonce, new byte[0], data);
+                if (print)
+                    System.out.printf("%-24s %7.1f MiB/s %13.1f MiB/s%n",
+                            "pure Java, " + lanes + " lanes", stream, mibPerSecond(size, start));
+            }
+
+            long start = System.nanoTime();
+            final Cipher chacha = Cipher.getInstance("ChaCha20");
+            chacha.init(Cipher.ENCRYPT_MODE, jdkKey, new ChaCha20ParameterSpec(nonce, 1));
+            chacha.doFinal(data, 0, size, out, 0);
+            final double stream = mibPerSecond(size, start);
+            start = System.nanoTime();
+            final Cipher aead = Cipher.getInstance("ChaCha20-Poly1305");
+            // a fresh nonce per round: the JDK refuses to encrypt twice with the same key and nonce
+            nonce[0] = (byte) round;
+            aead.init(Cipher.ENCRYPT_MODE, jdkKey, new IvParameterSpec(nonce));
+            aead.doFinal(data, 0, size, out, 0);
+            if (print)
+                System.out.printf("%-24s %7.1f MiB/s %13.1f MiB/s%n", "JDK provider", stream, mibPerSecond(size, start));
+        }
+    }
+
+    private static void check(final String name, final byte[] actual, final String expected) {
+        final String hex = Agent.hex(actual);
+        if (!hex.equalsIgnoreCase(expected))
+            throw new IllegalStateException(String.format("%s: expected %s, got %s", name, expected, hex));
+        System.out.printf("%-34s OK%n", name);
+    }
+
+    private static byte[] sequence(final int from, final int length) {
+        final byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = (byte) (from + i);
+        return b;
+    }
+
+    private static byte[] unhex(final String hex) {
+        final byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return b;
+    }
+
+    private static double mibPerSecond(final long bytes, final long start) {
+        return bytes / 1048576.0 / ((System.nanoTime() - start) / 1e9);
+    }
+}
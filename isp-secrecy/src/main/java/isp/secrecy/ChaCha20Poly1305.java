@@ -0,0 +1,90 @@
+package isp.secrecy;
+
+import javax.crypto.AEADBadTagException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Pure-Java ChaCha20-Poly1305 AEAD (RFC 8439, section 2.8) on top of {@link ChaCha20}.
+ * <p>
+ * The output has the same layout as the JDK's {@code ChaCha20-Poly1305} cipher: ciphertext
+ * followed by the 16-byte tag.
+ */
+public final class ChaCha20Poly1305 {
+    public static final int TAG_LENGTH = Poly1305.TAG_LENGTH;
+
+    private final byte[] key;
+    private final int lanes;
+
+    /**
+     * @param key   32-byte key
+     * @param lanes ChaCha20 blocks computed per batch, see {@link ChaCha20}
+     */
+    public ChaCha20Poly1305(final byte[] key, final int lanes) {
+        if (key.length != 32)
+            throw new IllegalArgumentException("Key must be 32 bytes");
+        this.key = key.clone();
+        this.lanes = lanes;
+    }
+
+    public ChaCha20Poly1305(final byte[] key) {
+        this(key, ChaCha20.DEFAULT_LANES);
+    }
+
+    /**
+     * @param nonce 12-byte nonce; never reuse one with the same key
+     * @return ciphertext followed by the tag
+     */
+    public byte[] encrypt(final byte[] nonce, final byte[] aad, final byte[] pt) {
+        final byte[] out = new byte[pt.length + TAG_LENGTH];
+        final ChaCha20 chacha = new ChaCha20(key, nonce, 0, lanes);
+        final Poly1305 poly = new Poly1305(oneTimeKey(chacha));
+
+        chacha.process(pt, 0, pt.length, out, 0);
+        mac(poly, aad, out, pt.length, out, pt.length);
+        return out;
+    }
+
+    /**
+     * @throws AEADBadTagException if the ciphertext, nonce or AAD was modified
+     */
+    public byte[] decrypt(final byte[] nonce, final byte[] aad, final byte[] ct) throws AEADBadTagException {
+        if (ct.length < TAG_LENGTH)
+            throw new AEADBadTagException("Ciphertext too short");
+        final int length = ct.length - TAG_LENGTH;
+        final ChaCha20 chacha = new ChaCha20(key, nonce, 0, lanes);
+        final Poly1305 poly = new Poly1305(oneTimeKey(chacha));
+
+        final byte[] tag = new byte[TAG_LENGTH];
+        mac(poly, aad, ct, length, tag, 0);
+        if (!MessageDigest.isEqual(tag, Arrays.copyOfRange(ct, length, ct.length)))
+            throw new AEADBadTagException("Tag mismatch");
+
+        final byte[] pt = new byte[length];
+        chacha.process(ct, 0, length, pt, 0);
+        return pt;
+    }
+
+    /**
+     * The Poly1305 key is the first half of keystream block 0; the message is encrypted from
+     * block 1 on, so the rest of block 0 is discarded.
+     */
+    private static byte[] oneTimeKey(final ChaCha20 chacha) {
+        final byte[] block = new byte[ChaCha20.BLOCK_SIZE];
+        chacha.process(block, 0, block.length, block, 0);
+        return Arrays.copyOf(block, 32);
+    }
+
+    private static void mac(final Poly1305 poly, final byte[] aad, final byte[] ct, final int ctLength,
+                            final byte[] tag, final int tagOffset) {
+        poly.update(aad, 0, aad.length);
+        poly.pad();
+        poly.update(ct, 0, ctLength);
+        poly.pad();
+        final byte[] lengths = new byte[16];
+        ChaCha20.putLittleEndian(lengths, 0, aad.length);
+        ChaCha20.putLittleEndian(lengths, 8, ctLength);
+        poly.update(lengths, 0, lengths.length);
+        poly.finish(tag, tagOffset);
+    }
+}
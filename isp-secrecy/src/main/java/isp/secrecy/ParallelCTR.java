@@ -0,0 +1,191 @@
+package isp.secrecy;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * AES in counter mode, parallel and with random access.
+ * <p>
+ * In CTR mode the keystream block {@code i} is {@code AES(k, IV + i)}, where the IV is a
+ * 128-bit big-endian counter; it does not depend on any other block. A large buffer is
+ * therefore split at block-aligned offsets and every part is encrypted by its own worker, with
+ * the counter advanced to the part's offset. The same trick decrypts any byte range of a
+ * ciphertext without touching the bytes before it.
+ * <p>
+ * The output is identical to a single {@code AES/CTR/NoPadding} cipher over the whole buffer.
+ */
+public class ParallelCTR {
+    public static final String CIPHER = "AES/CTR/NoPadding";
+    public static final int BLOCK_SIZE = 16;
+
+    /**
+     * Parts smaller than this are not worth handing to another thread.
+     */
+    public static final int MIN_PART = 64 * 1024;
+
+    private final Key key;
+    private final byte[] iv;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CIPHER);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * @param key  AES key
+     * @param iv   initial counter block (16 bytes)
+     * @param pool pool the parts are processed on
+     */
+    public ParallelCTR(final Key key, final byte[] iv, final ForkJoinPool pool) {
+        if (iv.length != BLOCK_SIZE)
+            throw new IllegalArgumentException("IV must be " + BLOCK_SIZE + " bytes");
+        this.key = key;
+        this.iv = iv.clone();
+        this.pool = pool;
+    }
+
+    public ParallelCTR(final Key key, final byte[] iv) {
+        this(key, iv, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return the counter block {@code blocks} blocks after {@code iv}, wrapping around mod 2^128
+     * like the JDK's CTR implementation
+     */
+    public static byte[] counter(final byte[] iv, final long blocks) {
+        final byte[] counter = iv.clone();
+        long carry = blocks;
+        for (int i = BLOCK_SIZE - 1; i >= 0 && carry != 0; i--) {
+            final long sum = (counter[i] & 0xff) + (carry & 0xff);
+            counter[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return counter;
+    }
+
+    /**
+     * Encrypts (or decrypts) {@code length} bytes in parallel. Input and output may be the same
+     * array with the same offset, i.e. the buffer is processed in place.
+     */
+    public void process(final byte[] in, final int inOffset, final int length, final byte[] out, final int outOffset)
+            throws GeneralSecurityException {
+        final int parts = Math.max(1, Math.min(pool.getParallelism() * 4, length / MIN_PART));
+        // block-aligned part size
+        final int part = ((length / parts + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+
+        try {
+            pool.submit(() -> IntStream.range(0, parts).parallel().forEach(i -> {
+                final int offset = i * part;
+                if (offset >= length)
+                    return;
+                try {
+                    process(offset, in, inOffset + offset, Math.min(part, length - offset), out, outOffset + offset);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalStateException && e.getCause().getCause() instanceof GeneralSecurityException)
+                throw (GeneralSecurityException) e.getCause().getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public byte[] process(final byte[] in) throws GeneralSecurityException {
+        final byte[] out = new byte[in.length];
+        process(in, 0, in.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Encrypts (or decrypts) bytes that sit at {@code position} in the whole stream, on the
+     * calling thread. The keystream before {@code position} is never computed, except for the
+     * part of the first block in front of it.
+     *
+     * @param position offset of {@code in[inOffset]} from the start of the stream
+     */
+    public void process(final long position, final byte[] in, final int inOffset, final int length,
+                        final byte[] out, final int outOffset) throws GeneralSecurityException {
+        final Cipher cipher = ciphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(counter(iv, position / BLOCK_SIZE)));
+        final int skip = (int) (position % BLOCK_SIZE);
+        if (skip > 0)
+            cipher.update(new byte[skip]);
+        cipher.doFinal(in, inOffset, length, out, outOffset);
+    }
+
+    /**
+     * Decrypts {@code length} bytes starting at {@code position} of the ciphertext.
+     *
+     * @param ciphertext the whole ciphertext
+     */
+    public byte[] decryptRange(final byte[] ciphertext, final int position, final int length)
+            throws GeneralSecurityException {
+        final byte[] out = new byte[length];
+        process(position, ciphertext, position, length, out, 0);
+        return out;
+    }
+
+    /**
+     * Compares a single cipher with the parallel engine and times range decryption.
+     * Usage: {@code ParallelCTR [size in MiB]} (default: 256).
+     */
+    public static void main(String[] args) throws Exception {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 256) * 1024 * 1024;
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+
+        final Cipher single = Cipher.getInstance(CIPHER);
+        single.init(Cipher.ENCRYPT_MODE, key);
+        final byte[] iv = single.getIV();
+        final ParallelCTR ctr = new ParallelCTR(key, iv);
+
+        // warm-up
+        single.doFinal(data, 0, 16 * MIN_PART);
+        ctr.process(Arrays.copyOf(data, 16 * MIN_PART));
+
+        long start = System.nanoTime();
+        single.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        final byte[] expected = single.doFinal(data);
+        System.out.printf("single cipher:  %7.1f MiB/s%n", mibPerSecond(size, start));
+
+        start = System.nanoTime();
+        final byte[] ct = ctr.process(data);
+        System.out.printf("parallel (%d):  %7.1f MiB/s, same output: %b%n",
+                ForkJoinPool.commonPool().getParallelism(), mibPerSecond(size, start), Arrays.equals(expected, ct));
+
+        start = System.nanoTime();
+        ctr.process(ct, 0, ct.length, ct, 0);
+        System.out.printf("in place:       %7.1f MiB/s, decrypted: %b%n", mibPerSecond(size, start), Arrays.equals(data, ct));
+
+        final Random random = new Random();
+        start = System.nanoTime();
+        boolean ok = true;
+        for (int i = 0; i < 10_000; i++) {
+            final int length = 1 + random.nextInt(4096);
+            final int position = random.nextInt(size - length);
+            ok &= Arrays.equals(ctr.decryptRange(expected, position, length),
+                    Arrays.copyOfRange(data, position, position + length));
+        }
+        System.out.printf("10000 random ranges: %d ms, correct: %b%n", (System.nanoTime() - start) / 1_000_000, ok);
+    }
+
+    private static double mibPerSecond(final long bytes, final long start) {
+        return bytes / 1048576.0 / ((System.nanoTime() - start) / 1e9);
+    }
+}
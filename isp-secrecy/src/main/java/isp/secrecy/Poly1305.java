@@ -0,0 +1,173 @@
+package isp.secrecy;
+
+/**
+ * Poly1305 one-time authenticator (RFC 8439, section 2.5), with the accumulator in five
+ * 26-bit limbs so that all products fit into a {@code long}.
+ */
+final class Poly1305 {
+    static final int TAG_LENGTH = 16;
+
+    private static final long MASK = 0x3ffffff;
+
+    private final long r0, r1, r2, r3, r4;
+    private final long s1, s2, s3, s4;
+    private final long pad0, pad1, pad2, pad3;
+    private long h0, h1, h2, h3, h4;
+
+    private final byte[] buffer = new byte[16];
+    private int buffered;
+
+    /**
+     * @param key 32-byte one-time key: r (clamped here) followed by s
+     */
+    Poly1305(final byte[] key) {
+        final long t0 = le(key, 0), t1 = le(key, 4), t2 = le(key, 8), t3 = le(key, 12);
+        r0 = t0 & 0x3ffffff;
+        r1 = ((t0 >>> 26) | (t1 << 6)) & 0x3ffff03;
+        r2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffc0ff;
+        r3 = ((t2 >>> 14) | (t3 << 18)) & 0x3f03fff;
+        r4 = (t3 >>> 8) & 0x00fffff;
+        s1 = r1 * 5;
+        s2 = r2 * 5;
+        s3 = r3 * 5;
+        s4 = r4 * 5;
+        pad0 = le(key, 16);
+        pad1 = le(key, 20);
+        pad2 = le(key, 24);
+        pad3 = le(key, 28);
+    }
+
+    void update(final byte[] in, int offset, int length) {
+        if (buffered > 0) {
+            final int n = Math.min(length, 16 - buffered);
+            System.arraycopy(in, offset, buffer, buffered, n);
+            buffered += n;
+            offset += n;
+            length -= n;
+            if (buffered < 16)
+                return;
+            block(buffer, 0, 1 << 24);
+            buffered = 0;
+        }
+        while (length >= 16) {
+            block(in, offset, 1 << 24);
+            offset += 16;
+            length -= 16;
+        }
+        System.arraycopy(in, offset, buffer, 0, length);
+        buffered = length;
+    }
+
+    /**
+     * Pads the input with zeros to a multiple of 16 bytes, as the AEAD construction requires.
+     */
+    void pad() {
+        if (buffered > 0) {
+            for (int i = buffered; i < 16; i++)
+                buffer[i] = 0;
+            block(buffer, 0, 1 << 24);
+            buffered = 0;
+        }
+    }
+
+    private void block(final byte[] m, final int offset, final long hibit) {
+        h0 += le(m, offset) & MASK;
+        h1 += (le(m, offset + 3) >>> 2) & MASK;
+        h2 += (le(m, offset + 6) >>> 4) & MASK;
+        h3 += (le(m, offset + 9) >>> 6) & MASK;
+        h4 += (le(m, offset + 12) >>> 8) | hibit;
+
+        final long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+        long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+        long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+        long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+        long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+        long c = d0 >>> 26;
+        h0 = d0 & MASK;
+        d1 += c;
+        c = d1 >>> 26;
+        h1 = d1 & MASK;
+        d2 += c;
+        c = d2 >>> 26;
+        h2 = d2 & MASK;
+        d3 += c;
+        c = d3 >>> 26;
+        h3 = d3 & MASK;
+        d4 += c;
+        c = d4 >>> 26;
+        h4 = d4 & MASK;
+        h0 += c * 5;
+        c = h0 >>> 26;
+        h0 &= MASK;
+        h1 += c;
+    }
+
+    void finish(final byte[] out, final int offset) {
+        if (buffered > 0) {
+            // the last partial block gets its 1 bit right after the data instead of at bit 128
+            buffer[buffered] = 1;
+            for (int i = buffered + 1; i < 16; i++)
+                buffer[i] = 0;
+            block(buffer, 0, 0);
+        }
+
+        // full carry
+        long c = h1 >>> 26;
+        h1 &= MASK;
+        h2 += c;
+        c = h2 >>> 26;
+        h2 &= MASK;
+        h3 += c;
+        c = h3 >>> 26;
+        h3 &= MASK;
+        h4 += c;
+        c = h4 >>> 26;
+        h4 &= MASK;
+        h0 += c * 5;
+        c = h0 >>> 26;
+        h0 &= MASK;
+        h1 += c;
+
+        // g = h + 5 - 2^130; use it instead of h if it did not go negative (h >= p)
+        long g0 = h0 + 5;
+        c = g0 >>> 26;
+        g0 &= MASK;
+        long g1 = h1 + c;
+        c = g1 >>> 26;
+        g1 &= MASK;
+        long g2 = h2 + c;
+        c = g2 >>> 26;
+        g2 &= MASK;
+        long g3 = h3 + c;
+        c = g3 >>> 26;
+        g3 &= MASK;
+        final long g4 = h4 + c - (1L << 26);
+
+        final long useG = (g4 >>> 63) - 1;
+        h0 = (h0 & ~useG) | (g0 & useG);
+        h1 = (h1 & ~useG) | (g1 & useG);
+        h2 = (h2 & ~useG) | (g2 & useG);
+        h3 = (h3 & ~useG) | (g3 & useG);
+        h4 = (h4 & ~useG) | (g4 & useG);
+
+        // h mod 2^128, then + s
+        final long w0 = (h0 | (h1 << 26)) & 0xffffffffL;
+        final long w1 = ((h1 >>> 6) | (h2 << 20)) & 0xffffffffL;
+        final long w2 = ((h2 >>> 12) | (h3 << 14)) & 0xffffffffL;
+        final long w3 = ((h3 >>> 18) | (h4 << 8)) & 0xffffffffL;
+
+        long f = w0 + pad0;
+        ChaCha20.putLittleEndian(out, offset, (int) f);
+        f = w1 + pad1 + (f >>> 32);
+        ChaCha20.putLittleEndian(out, offset + 4, (int) f);
+        f = w2 + pad2 + (f >>> 32);
+        ChaCha20.putLittleEndian(out, offset + 8, (int) f);
+        f = w3 + pad3 + (f >>> 32);
+        ChaCha20.putLittleEndian(out, offset + 12, (int) f);
+    }
+
+    private static long le(final byte[] b, final int offset) {
+        return ChaCha20.littleEndian(b, offset) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,226 @@
+package isp.secrecy;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.ChaCha20ParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An encrypted file that can be decrypted from any byte offset.
+ * <p>
+ * The file is a header followed by the whole plaintext encrypted with ChaCha20, starting at
+ * block counter 1 (as in {@link A3ChaCha20}):
+ * <pre>
+ *   byte[4]  magic "ICC1"
+ *   byte[12] nonce
+ *   byte[*]  ciphertext
+ * </pre>
+ * ChaCha20 produces its keystream in independent 64-byte blocks, so the byte at offset
+ * {@code p} is encrypted with block {@code 1 + p / 64} at position {@code p % 64}. A reader
+ * therefore starts the cipher at that counter and decrypts just the requested range, straight
+ * from a memory-mapped view of the file.
+ * <p>
+ * The format provides confidentiality only; like any stream cipher, ChaCha20 alone does not
+ * detect modified ciphertext.
+ */
+public final class SeekableChaCha20File implements AutoCloseable {
+    public static final int BLOCK_SIZE = 64;
+    public static final int HEADER_LENGTH = 4 + 12;
+    /**
+     * The counter is a 32-bit value; keep it positive.
+     */
+    public static final long MAX_LENGTH = (Integer.MAX_VALUE - 1L) * BLOCK_SIZE;
+
+    private static final byte[] MAGIC = "ICC1".getBytes(StandardCharsets.US_ASCII);
+    private static final long WINDOW = 1L << 30;
+
+    private final Key key;
+    private final byte[] nonce;
+    private final long length;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] windows;
+
+    private SeekableChaCha20File(final Key key, final FileChannel channel) throws IOException {
+        this.key = key;
+        this.channel = channel;
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining())
+            if (channel.read(header, header.position()) < 0)
+                throw new IOException("Missing header");
+        header.flip();
+        final byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not an encrypted file");
+        this.nonce = new byte[12];
+        header.get(nonce);
+
+        this.length = channel.size() - HEADER_LENGTH;
+        this.windows = new MappedByteBuffer[(int) ((length + WINDOW - 1) / WINDOW)];
+        for (int i = 0; i < windows.length; i++)
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH + i * WINDOW,
+                    Math.min(WINDOW, length - i * WINDOW));
+    }
+
+    /**
+     * Opens an encrypted file for random-access reads.
+     */
+    public static SeekableChaCha20File open(final Key key, final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new SeekableChaCha20File(key, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Encrypts {@code in} into {@code out} under a fresh random nonce.
+     */
+    public static void encrypt(final Key key, final Path in, final Path out) throws IOException, GeneralSecurityException {
+        if (Files.size(in) > MAX_LENGTH)
+            throw new IllegalArgumentException("File too large");
+
+        final byte[] nonce = new byte[12];
+        new SecureRandom().nextBytes(nonce);
+        final Cipher cipher = Cipher.getInstance("ChaCha20");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new ChaCha20ParameterSpec(nonce, 1));
+
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel sink = FileChannel.open(out, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            sink.write(ByteBuffer.wrap(ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put(nonce).array()));
+
+            final ByteBuffer pt = ByteBuffer.allocateDirect(1024 * 1024);
+            final ByteBuffer ct = ByteBuffer.allocateDirect(1024 * 1024);
+            while (source.read(pt) != -1) {
+                pt.flip();
+                cipher.update(pt, ct);
+                ct.flip();
+                while (ct.hasRemaining())
+                    sink.write(ct);
+                pt.clear();
+                ct.clear();
+            }
+            cipher.doFinal();
+        }
+    }
+
+    /**
+     * @return length of the plaintext
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Decrypts the plaintext starting at {@code position} into {@code dst}, as many bytes as
+     * fit (or as remain in the file).
+     *
+     * @return number of bytes decrypted
+     */
+    public int read(final long position, final ByteBuffer dst) throws GeneralSecurityException {
+        if (position < 0 || position > length)
+            throw new IndexOutOfBoundsException("Position " + position + " outside of [0, " + length + "]");
+        final int total = (int) Math.min(dst.remaining(), length - position);
+        if (total == 0)
+            return 0;
+
+        // the JDK refuses to re-initialize a ChaCha20 cipher with the same key and nonce (in any mode)
+        final Cipher cipher = Cipher.getInstance("ChaCha20");
+        cipher.init(Cipher.DECRYPT_MODE, key, new ChaCha20ParameterSpec(nonce, (int) (1 + position / BLOCK_SIZE)));
+        final int skip = (int) (position % BLOCK_SIZE);
+        if (skip > 0)
+            cipher.update(new byte[skip]);
+
+        // the keystream simply continues when the range crosses into the next window
+        long offset = position;
+        int remaining = total;
+        while (remaining > 0) {
+            final ByteBuffer window = windows[(int) (offset / WINDOW)].duplicate();
+            final int start = (int) (offset % WINDOW);
+            final int n = Math.min(remaining, window.capacity() - start);
+            window.limit(start + n).position(start);
+            cipher.update(window, dst);
+            offset += n;
+            remaining -= n;
+        }
+        cipher.doFinal();
+        return total;
+    }
+
+    public byte[] read(final long position, final int length) throws GeneralSecurityException {
+        final ByteBuffer dst = ByteBuffer.allocate((int) Math.max(0, Math.min(length, this.length - position)));
+        read(position, dst);
+        return dst.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Encrypts a generated file and compares random range reads with decrypting from the start.
+     * Usage: {@code SeekableChaCha20File [size in MiB]} (default: 256).
+     */
+    public static void main(String[] args) throws Exception {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 256) * 1024 * 1024;
+        final Key key = KeyGenerator.getInstance("ChaCha20").generateKey();
+
+        final byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        final Path plain = Files.createTempFile("log", ".txt");
+        final Path encrypted = Files.createTempFile("log", ".enc");
+        try {
+            Files.write(plain, data);
+            long start = System.nanoTime();
+            encrypt(key, plain, encrypted);
+            System.out.printf("encrypted %d MiB in %d ms%n", size >> 20, (System.nanoTime() - start) / 1_000_000);
+
+            try (SeekableChaCha20File file = open(key, encrypted)) {
+                final Random random = new Random();
+                final int reads = 10_000;
+                boolean ok = true;
+                start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    final int length = 1 + random.nextInt(4096);
+                    final long position = (long) (random.nextDouble() * (size - length));
+                    ok &= Arrays.equals(file.read(position, length),
+                            Arrays.copyOfRange(data, (int) position, (int) position + length));
+                }
+                System.out.printf("%d random reads: %.1f us each, correct: %b%n",
+                        reads, (System.nanoTime() - start) / 1e3 / reads, ok);
+
+                // what a reader without seeking pays for the last 4 KiB
+                start = System.nanoTime();
+                final Cipher cipher = Cipher.getInstance("ChaCha20");
+                cipher.init(Cipher.DECRYPT_MODE, key, new ChaCha20ParameterSpec(file.nonce, 1));
+                final ByteBuffer all = ByteBuffer.allocateDirect(size);
+                for (MappedByteBuffer window : file.windows)
+                    cipher.update(window.duplicate(), all);
+                System.out.printf("tail read from the start: %d ms%n", (System.nanoTime() - start) / 1_000_000);
+                start = System.nanoTime();
+                file.read(size - 4096, 4096);
+                System.out.printf("tail read with seek:      %.3f ms%n", (System.nanoTime() - start) / 1e6);
+            }
+        } finally {
+            Files.delete(plain);
+            Files.delete(encrypted);
+        }
+    }
+}
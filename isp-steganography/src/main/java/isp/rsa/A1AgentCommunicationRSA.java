@@ -5,7 +5,6 @@ import fri.isp.Environment;
 
 import javax.crypto.Cipher;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 
 /**
  * Assuming Alice and Bob know each other's public key, secure the channel using an
@@ -20,9 +19,8 @@ public class A1AgentCommunicationRSA {
         final String algorithm = "RSA/ECB/OAEPPadding";
 
         // Create two public-secret key pairs
-        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
-        final KeyPair bobKP = kpg.generateKeyPair();
-        final KeyPair aliceKP = kpg.generateKeyPair();
+        final KeyPair bobKP = RSAProfile.RSA_2048.generateKeyPair();
+        final KeyPair aliceKP = RSAProfile.RSA_2048.generateKeyPair();
 
         final int message_count = 10;
 
@@ -31,20 +29,22 @@ public class A1AgentCommunicationRSA {
         env.add(new Agent("alice") {
             @Override
             public void task() throws Exception {
-                final Cipher rsa = Cipher.getInstance(algorithm);
+                // one cipher per direction, initialized only once
+                final Cipher rsaEnc = Cipher.getInstance(algorithm);
+                rsaEnc.init(Cipher.ENCRYPT_MODE, bobKP.getPublic());
+                final Cipher rsaDec = Cipher.getInstance(algorithm);
+                rsaDec.init(Cipher.DECRYPT_MODE, RSAProfile.RSA_2048.crtKey(aliceKP.getPrivate()));
 
                 for (int i = 0; i < message_count; i++) {
                     // send part
                     String message = String.format("Alice calls bob number %d!", i);
-                    rsa.init(Cipher.ENCRYPT_MODE, bobKP.getPublic());
-                    final byte[] ct_send = rsa.doFinal(message.getBytes());
+                    final byte[] ct_send = rsaEnc.doFinal(message.getBytes());
                     send("bob", ct_send);
                     System.out.println("[alice] CT: " + Agent.hex(ct_send));
 
                     // receive part
-                    rsa.init(Cipher.DECRYPT_MODE, aliceKP.getPrivate());
                     final byte[] ct = receive("bob");
-                    final byte[] decryptedText = rsa.doFinal(ct);
+                    final byte[] decryptedText = rsaDec.doFinal(ct);
                     System.out.println("[alice] PT: " + new String(decryptedText));
                 }
             }
@@ -53,21 +53,21 @@ public class A1AgentCommunicationRSA {
         env.add(new Agent("bob") {
             @Override
             public void task() throws Exception {
-                final Cipher rsa = Cipher.getInstance(algorithm);
-                rsa.init(Cipher.DECRYPT_MODE, bobKP.getPrivate());
+                final Cipher rsaEnc = Cipher.getInstance(algorithm);
+                rsaEnc.init(Cipher.ENCRYPT_MODE, aliceKP.getPublic());
+                final Cipher rsaDec = Cipher.getInstance(algorithm);
+                rsaDec.init(Cipher.DECRYPT_MODE, RSAProfile.RSA_2048.crtKey(bobKP.getPrivate()));
 
                 for (int i = 0; i < message_count; i++) {
                     // send part
-                    rsa.init(Cipher.ENCRYPT_MODE, aliceKP.getPublic());
                     String message = String.format("Bob calls alice number %d!", i);
-                    final byte[] ct_send = rsa.doFinal(message.getBytes());
+                    final byte[] ct_send = rsaEnc.doFinal(message.getBytes());
                     send("alice", ct_send);
                     System.out.println("[bob] CT: " + Agent.hex(ct_send));
 
                     // receive part
-                    rsa.init(Cipher.DECRYPT_MODE, bobKP.getPrivate());
                     final byte[] ct = receive("alice");
-                    final byte[] decryptedText = rsa.doFinal(ct);
+                    final byte[] decryptedText = rsaDec.doFinal(ct);
                     System.out.println("[bob] PT: " + new String(decryptedText));
                 }
             }
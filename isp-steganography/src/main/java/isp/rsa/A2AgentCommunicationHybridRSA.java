@@ -0,0 +1,79 @@
+package isp.rsa;
+
+import fri.isp.Agent;
+import fri.isp.Environment;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * The same exchange as in {@link A1AgentCommunicationRSA}, but with hybrid encryption
+ * ({@link HybridRSA}): each agent wraps one AES key for the other with RSA-OAEP at the
+ * start, and all messages are then encrypted with AES-GCM. The last message is far larger
+ * than what RSA-OAEP could encrypt directly.
+ */
+public class A2AgentCommunicationHybridRSA {
+    public static void main(String[] args) throws Exception {
+
+        // Create two public-secret key pairs
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        final KeyPair bobKP = kpg.generateKeyPair();
+        final KeyPair aliceKP = kpg.generateKeyPair();
+
+        final int message_count = 10;
+        final byte[] large = new byte[16 * 1024 * 1024];
+        new SecureRandom().nextBytes(large);
+
+        final Environment env = new Environment();
+
+        env.add(new Agent("alice") {
+            @Override
+            public void task() throws Exception {
+                // one public-key operation per direction and session
+                final HybridRSA out = HybridRSA.newSession(bobKP.getPublic());
+                send("bob", out.wrappedKey());
+                final HybridRSA in = HybridRSA.openSession(aliceKP.getPrivate(), receive("bob"));
+
+                for (int i = 0; i < message_count; i++) {
+                    // send part
+                    final byte[] pt = i == message_count - 1 ? large :
+                            String.format("Alice calls bob number %d!", i).getBytes(StandardCharsets.UTF_8);
+                    send("bob", out.encrypt(pt));
+
+                    // receive part
+                    final byte[] decryptedText = in.decrypt(receive("bob"));
+                    System.out.println("[alice] PT: " + new String(decryptedText, StandardCharsets.UTF_8));
+                }
+            }
+        });
+
+        env.add(new Agent("bob") {
+            @Override
+            public void task() throws Exception {
+                final HybridRSA in = HybridRSA.openSession(bobKP.getPrivate(), receive("alice"));
+                final HybridRSA out = HybridRSA.newSession(aliceKP.getPublic());
+                send("alice", out.wrappedKey());
+
+                for (int i = 0; i < message_count; i++) {
+                    // receive part
+                    final byte[] decryptedText = in.decrypt(receive("alice"));
+                    if (decryptedText.length > 1024)
+                        System.out.printf("[bob] PT: %d bytes, intact: %b%n", decryptedText.length,
+                                MessageDigest.isEqual(decryptedText, large));
+                    else
+                        System.out.println("[bob] PT: " + new String(decryptedText, StandardCharsets.UTF_8));
+
+                    // send part
+                    final String message = String.format("Bob calls alice number %d!", i);
+                    send("alice", out.encrypt(message.getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+        });
+
+        env.connect("alice", "bob");
+        env.start();
+    }
+}
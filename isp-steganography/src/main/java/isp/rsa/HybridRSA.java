@@ -0,0 +1,225 @@
+package isp.rsa;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * Hybrid encryption: RSA-OAEP wraps (encapsulates) a random AES key once, and the payload
+ * itself is encrypted with AES-GCM.
+ * <p>
+ * This lifts the size limit of plain RSA-OAEP (about 190 bytes with a 2048-bit key) and
+ * replaces a private-key operation per message with one per session. A session can be
+ * used for many messages ({@link #newSession(PublicKey)}), or a fresh key can be wrapped for
+ * every large message ({@link #encryptMessage(PublicKey, InputStream, OutputStream)}).
+ * <p>
+ * Messages are streamed in records of at most {@link #RECORD_SIZE} bytes, so neither side
+ * has to keep the whole message in memory; each record is authenticated (and released) on its own.
+ * Format of a message:
+ * <pre>
+ *   int    message sequence number
+ *   record*  byte last-record flag | int length of CT | CT (AES-GCM, with tag)
+ * </pre>
+ * The GCM nonce of a record is {@code message sequence (4 B) || record index (8 B)} and the
+ * last-record flag is authenticated as AAD, so records can be neither reordered nor dropped, and
+ * a truncated message is rejected.
+ */
+public class HybridRSA {
+    public static final String RSA = "RSA/ECB/OAEPPadding";
+    public static final String AES = "AES/GCM/NoPadding";
+    public static final int RECORD_SIZE = 64 * 1024;
+    public static final int TAG_BITS = 128;
+
+    private final SecretKey key;
+    private final byte[] wrappedKey;
+    private final Cipher cipher;
+    private int sequence;
+
+    private HybridRSA(final SecretKey key, final byte[] wrappedKey) throws GeneralSecurityException {
+        this.key = key;
+        this.wrappedKey = wrappedKey;
+        this.cipher = Cipher.getInstance(AES);
+    }
+
+    /**
+     * Creates a sender session: generates a fresh AES key and wraps it with the
+     * recipient's public key.
+     *
+     * @param recipient RSA public key of the recipient
+     * @return session; send {@link #wrappedKey()} to the recipient once
+     */
+    public static HybridRSA newSession(final PublicKey recipient) throws GeneralSecurityException {
+        final KeyGenerator kg = KeyGenerator.getInstance("AES");
+        kg.init(256);
+        final SecretKey key = kg.generateKey();
+
+        final Cipher rsa = Cipher.getInstance(RSA);
+        rsa.init(Cipher.WRAP_MODE, recipient);
+        return new HybridRSA(key, rsa.wrap(key));
+    }
+
+    /**
+     * Opens a recipient session from a wrapped key. This is the only private-key
+     * operation of the session.
+     *
+     * @param privateKey RSA private key of the recipient
+     * @param wrappedKey the wrapped AES key received from the sender
+     * @return session
+     */
+    public static HybridRSA openSession(final PrivateKey privateKey, final byte[] wrappedKey)
+            throws GeneralSecurityException {
+        final Cipher rsa = Cipher.getInstance(RSA);
+        rsa.init(Cipher.UNWRAP_MODE, privateKey);
+        return new HybridRSA((SecretKey) rsa.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY), wrappedKey);
+    }
+
+    /**
+     * @return the RSA-OAEP encrypted AES key of this session
+     */
+    public byte[] wrappedKey() {
+        return wrappedKey.clone();
+    }
+
+    /**
+     * Encrypts a message of arbitrary length from {@code in} to {@code out}.
+     */
+    public void encrypt(final InputStream in, final OutputStream out) throws IOException, GeneralSecurityException {
+        final DataOutputStream dos = new DataOutputStream(out);
+        final int messageSequence = sequence++;
+        dos.writeInt(messageSequence);
+
+        final byte[] pt = new byte[RECORD_SIZE];
+        final byte[] ct = new byte[RECORD_SIZE + TAG_BITS / 8];
+
+        // always look one record ahead to learn whether the current one is the last
+        int length = in.readNBytes(pt, 0, RECORD_SIZE);
+        final byte[] next = new byte[RECORD_SIZE];
+        for (long record = 0; ; record++) {
+            final int nextLength = length == RECORD_SIZE ? in.readNBytes(next, 0, RECORD_SIZE) : 0;
+            final boolean last = nextLength == 0;
+
+            init(Cipher.ENCRYPT_MODE, messageSequence, record, last);
+            final int ctLength = cipher.doFinal(pt, 0, length, ct, 0);
+            dos.writeBoolean(last);
+            dos.writeInt(ctLength);
+            dos.write(ct, 0, ctLength);
+
+            if (last)
+                break;
+            System.arraycopy(next, 0, pt, 0, nextLength);
+            length = nextLength;
+        }
+        dos.flush();
+    }
+
+    /**
+     * Decrypts a message from {@code in} to {@code out}. Each record is written to {@code out}
+     * as soon as its tag has been verified.
+     *
+     * @throws AEADBadTagException if a record was modified, reordered or the message was truncated
+     *                             or replayed
+     */
+    public void decrypt(final InputStream in, final OutputStream out) throws IOException, GeneralSecurityException {
+        final DataInputStream dis = new DataInputStream(in);
+        final int messageSequence = dis.readInt();
+        // messages of a session must arrive in order; this also rejects replays
+        if (messageSequence != sequence)
+            throw new AEADBadTagException("Unexpected message sequence number: " + messageSequence);
+        sequence++;
+
+        final byte[] ct = new byte[RECORD_SIZE + TAG_BITS / 8];
+        final byte[] pt = new byte[RECORD_SIZE];
+        for (long record = 0; ; record++) {
+            final boolean last;
+            final int ctLength;
+            try {
+                last = dis.readBoolean();
+                ctLength = dis.readInt();
+            } catch (EOFException e) {
+                throw new AEADBadTagException("Truncated message");
+            }
+            if (ctLength < TAG_BITS / 8 || ctLength > ct.length)
+                throw new AEADBadTagException("Invalid record length: " + ctLength);
+            dis.readFully(ct, 0, ctLength);
+
+            init(Cipher.DECRYPT_MODE, messageSequence, record, last);
+            final int ptLength = cipher.doFinal(ct, 0, ctLength, pt, 0);
+            out.write(pt, 0, ptLength);
+
+            if (last)
+                break;
+        }
+        out.flush();
+    }
+
+    /**
+     * Encrypts a message held in memory.
+     */
+    public byte[] encrypt(final byte[] pt) throws GeneralSecurityException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(pt.length + 64);
+        try {
+            encrypt(new ByteArrayInputStream(pt), out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory streams do not throw
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decrypts a message held in memory.
+     */
+    public byte[] decrypt(final byte[] ct) throws GeneralSecurityException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(ct.length);
+        try {
+            decrypt(new ByteArrayInputStream(ct), out);
+        } catch (IOException e) {
+            throw new AEADBadTagException("Malformed message: " + e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encrypts a single (large) message under its own data key. The output starts with the
+     * length of the wrapped key and the wrapped key itself.
+     */
+    public static void encryptMessage(final PublicKey recipient, final InputStream in, final OutputStream out)
+            throws IOException, GeneralSecurityException {
+        final HybridRSA session = newSession(recipient);
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.writeShort(session.wrappedKey.length);
+        dos.write(session.wrappedKey);
+        session.encrypt(in, dos);
+    }
+
+    /**
+     * Decrypts a message created with {@link #encryptMessage(PublicKey, InputStream, OutputStream)}.
+     */
+    public static void decryptMessage(final PrivateKey privateKey, final InputStream in, final OutputStream out)
+            throws IOException, GeneralSecurityException {
+        final DataInputStream dis = new DataInputStream(in);
+        final byte[] wrappedKey = new byte[dis.readUnsignedShort()];
+        dis.readFully(wrappedKey);
+        openSession(privateKey, wrappedKey).decrypt(dis, out);
+    }
+
+    private void init(final int mode, final int messageSequence, final long record, final boolean last)
+            throws GeneralSecurityException {
+        final byte[] nonce = ByteBuffer.allocate(12).putInt(messageSequence).putLong(record).array();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(new byte[]{(byte) (last ? 1 : 0)});
+    }
+}
@@ -0,0 +1,127 @@
+package isp.rsa;
+
+import javax.crypto.Cipher;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Random;
+
+/**
+ * Throughput of hybrid RSA-OAEP + AES-GCM encryption ({@link HybridRSA}) for messages
+ * from 1 KiB up to 1 GiB, compared with encrypting the message directly with RSA-OAEP
+ * in 190-byte blocks as {@link A1AgentCommunicationRSA} would have to.
+ * <p>
+ * Ciphertexts are streamed to a temporary file, so memory use stays constant.
+ * Usage: {@code HybridRSABenchmark [max size in MiB]} (default 1024).
+ */
+public class HybridRSABenchmark {
+    private static final int RSA_BLOCK = 190;
+    private static final long RSA_LIMIT = 256 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        final long maxSize = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048);
+        final KeyPair bobKP = kpg.generateKeyPair();
+
+        final File ctFile = File.createTempFile("hybrid-rsa", ".bin");
+        ctFile.deleteOnExit();
+
+        // warm up the JIT
+        for (int i = 0; i < 3; i++)
+            HybridRSA.encryptMessage(bobKP.getPublic(), new RandomStream(8 * 1024 * 1024),
+                    OutputStream.nullOutputStream());
+
+        System.out.printf("%10s %14s %14s %16s%n", "size", "hybrid enc", "hybrid dec", "raw RSA enc+dec");
+        for (long size = 1024; size <= maxSize; size *= 4) {
+            // hybrid, one wrapped key per message
+            long start = System.nanoTime();
+            try (InputStream in = new RandomStream(size);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(ctFile))) {
+                HybridRSA.encryptMessage(bobKP.getPublic(), in, out);
+            }
+            final long enc = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            try (InputStream in = new BufferedInputStream(new FileInputStream(ctFile))) {
+                HybridRSA.decryptMessage(bobKP.getPrivate(), in, OutputStream.nullOutputStream());
+            }
+            final long dec = System.nanoTime() - start;
+
+            System.out.printf("%10s %14s %14s %16s%n", size(size), rate(size, enc), rate(size, dec),
+                    size <= RSA_LIMIT ? rate(size, rawRSA(bobKP, size)) : "-");
+        }
+    }
+
+    /**
+     * Encrypts and decrypts {@code size} bytes directly with RSA-OAEP, block by block.
+     *
+     * @return elapsed nanoseconds
+     */
+    private static long rawRSA(final KeyPair kp, final long size) throws Exception {
+        final Cipher enc = Cipher.getInstance(HybridRSA.RSA);
+        final Cipher dec = Cipher.getInstance(HybridRSA.RSA);
+        enc.init(Cipher.ENCRYPT_MODE, kp.getPublic());
+        dec.init(Cipher.DECRYPT_MODE, kp.getPrivate());
+        final byte[] block = new byte[RSA_BLOCK];
+
+        final long start = System.nanoTime();
+        for (long done = 0; done < size; done += RSA_BLOCK)
+            dec.doFinal(enc.doFinal(block, 0, (int) Math.min(RSA_BLOCK, size - done)));
+        return System.nanoTime() - start;
+    }
+
+    private static String rate(final long size, final long nanos) {
+        return String.format("%.3f MiB/s", size / (1024.0 * 1024) / (nanos / 1e9));
+    }
+
+    private static String size(final long size) {
+        if (size >= 1024 * 1024 * 1024)
+            return size / (1024 * 1024 * 1024) + " GiB";
+        if (size >= 1024 * 1024)
+            return size / (1024 * 1024) + " MiB";
+        return size / 1024 + " KiB";
+    }
+
+    /**
+     * Input of a given length that repeats one block of random bytes, so that generating
+     * the input does not dominate the measurement.
+     */
+    private static final class RandomStream extends InputStream {
+        private static final byte[] BLOCK = new byte[64 * 1024];
+
+        static {
+            new Random(42).nextBytes(BLOCK);
+        }
+
+        private long remaining;
+
+        RandomStream(final long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0)
+                return -1;
+            return BLOCK[(int) (--remaining % BLOCK.length)] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (remaining == 0)
+                return -1;
+            final int n = (int) Math.min(Math.min(len, remaining), BLOCK.length);
+            System.arraycopy(BLOCK, 0, b, off, n);
+            remaining -= n;
+            return n;
+        }
+    }
+}
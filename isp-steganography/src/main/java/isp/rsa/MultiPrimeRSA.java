@@ -0,0 +1,132 @@
+package isp.rsa;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAMultiPrimePrivateCrtKeySpec;
+import java.security.spec.RSAOtherPrimeInfo;
+
+/**
+ * RSA keys with 2 or 3 primes, used through the raw RSA primitive only.
+ * <p>
+ * The JDK provider neither generates nor accepts multi-prime keys, so their keys are generated
+ * here ({@link #generateKeySpec(SecureRandom)}) and used through
+ * {@link #privateOp(RSAMultiPrimePrivateCrtKeySpec, BigInteger)} (RFC 8017, RSADP). That primitive
+ * applies no padding and no blinding; it is meant for benchmarking and sizing (what a third prime
+ * buys for decrypt-heavy services), not for protecting real messages. For real keys, see
+ * {@link RSAProfile}.
+ */
+public final class MultiPrimeRSA {
+    private final int bits;
+    private final int primes;
+
+    private MultiPrimeRSA(final int bits, final int primes) {
+        this.bits = bits;
+        this.primes = primes;
+    }
+
+    /**
+     * @param bits   modulus size: 2048, 3072 or 4096
+     * @param primes number of primes: 2 or 3
+     * @return key parameters
+     */
+    public static MultiPrimeRSA of(final int bits, final int primes) {
+        if (bits != 2048 && bits != 3072 && bits != 4096)
+            throw new IllegalArgumentException("Unsupported modulus size: " + bits);
+        if (primes != 2 && primes != 3)
+            throw new IllegalArgumentException("Unsupported number of primes: " + primes);
+        return new MultiPrimeRSA(bits, primes);
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    public int primes() {
+        return primes;
+    }
+
+    /**
+     * Generates a private key of this size with all CRT parameters, including the
+     * additional primes of a multi-prime key.
+     *
+     * @param random source of randomness
+     * @return key specification; the public key is (modulus, publicExponent)
+     */
+    public RSAMultiPrimePrivateCrtKeySpec generateKeySpec(final SecureRandom random) {
+        final BigInteger e = RSAKeyGenParameterSpec.F4;
+
+        while (true) {
+            final BigInteger[] r = new BigInteger[primes];
+            BigInteger n = BigInteger.ONE, lambda = BigInteger.ONE;
+            for (int i = 0; i < primes; i++) {
+                // the first prime takes the remaining bits
+                final int primeBits = i == 0 ? bits - (primes - 1) * (bits / primes) : bits / primes;
+                do {
+                    r[i] = BigInteger.probablePrime(primeBits, random);
+                } while (!r[i].subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE) || contains(r, i));
+
+                n = n.multiply(r[i]);
+                final BigInteger r1 = r[i].subtract(BigInteger.ONE);
+                lambda = lambda.divide(lambda.gcd(r1)).multiply(r1);
+            }
+            if (n.bitLength() != bits)
+                continue;
+
+            final BigInteger d = e.modInverse(lambda);
+            final RSAOtherPrimeInfo[] others = primes > 2 ? new RSAOtherPrimeInfo[primes - 2] : null;
+            BigInteger product = r[0].multiply(r[1]);
+            for (int i = 2; i < primes; i++) {
+                others[i - 2] = new RSAOtherPrimeInfo(r[i], d.mod(r[i].subtract(BigInteger.ONE)),
+                        product.modInverse(r[i]));
+                product = product.multiply(r[i]);
+            }
+
+            return new RSAMultiPrimePrivateCrtKeySpec(n, e, d, r[0], r[1],
+                    d.mod(r[0].subtract(BigInteger.ONE)), d.mod(r[1].subtract(BigInteger.ONE)),
+                    r[1].modInverse(r[0]), others);
+        }
+    }
+
+    private static boolean contains(final BigInteger[] values, final int upTo) {
+        for (int i = 0; i < upTo; i++)
+            if (values[i].equals(values[upTo]))
+                return true;
+        return false;
+    }
+
+    /**
+     * Raw RSA private-key operation m = c^d mod n computed with the CRT (RFC 8017, 5.1.2,
+     * step 2.b), for any number of primes.
+     *
+     * @param key private key with CRT parameters
+     * @param c   ciphertext representative, 0 &lt;= c &lt; n
+     * @return message representative
+     */
+    public static BigInteger privateOp(final RSAMultiPrimePrivateCrtKeySpec key, final BigInteger c) {
+        final BigInteger p = key.getPrimeP(), q = key.getPrimeQ();
+        final BigInteger m1 = c.mod(p).modPow(key.getPrimeExponentP(), p);
+        final BigInteger m2 = c.mod(q).modPow(key.getPrimeExponentQ(), q);
+
+        final BigInteger h = m1.subtract(m2).multiply(key.getCrtCoefficient()).mod(p);
+        BigInteger m = m2.add(q.multiply(h));
+
+        final RSAOtherPrimeInfo[] others = key.getOtherPrimeInfo();
+        if (others != null) {
+            BigInteger r = p.multiply(q);
+            for (RSAOtherPrimeInfo other : others) {
+                final BigInteger ri = other.getPrime();
+                final BigInteger mi = c.mod(ri).modPow(other.getExponent(), ri);
+                final BigInteger hi = mi.subtract(m).multiply(other.getCrtCoefficient()).mod(ri);
+                m = m.add(r.multiply(hi));
+                r = r.multiply(ri);
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RSA-%d/%dp", bits, primes);
+    }
+}
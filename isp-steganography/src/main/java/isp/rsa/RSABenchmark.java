@@ -0,0 +1,99 @@
+package isp.rsa;
+
+import javax.crypto.Cipher;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.RSAMultiPrimePrivateCrtKeySpec;
+
+/**
+ * Key generation, encryption, decryption and signing rates for each modulus size.
+ * <p>
+ * For each {@link RSAProfile} the JDK provider is measured (RSA-OAEP and SHA256withRSA, both using
+ * CRT keys). For 2 and 3 primes ({@link MultiPrimeRSA}) the raw private-key primitive is measured
+ * with and without CRT, which shows what CRT and a third prime buy for decrypt-heavy services.
+ * Usage: {@code RSABenchmark [seconds per measurement]} (default 2).
+ */
+public class RSABenchmark {
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        final SecureRandom random = new SecureRandom();
+        final byte[] message = new byte[32];
+        random.nextBytes(message);
+
+        final RSAProfile[] profiles = {RSAProfile.RSA_2048, RSAProfile.RSA_3072, RSAProfile.RSA_4096};
+
+        System.out.printf("%-12s %-22s %12s%n", "profile", "operation", "ops/s");
+        for (RSAProfile profile : profiles) {
+            for (int primes = 2; primes <= 3; primes++) {
+                final MultiPrimeRSA raw = MultiPrimeRSA.of(profile.bits(), primes);
+                report(raw.toString(), "keygen", seconds, () -> raw.generateKeySpec(random));
+
+                final RSAMultiPrimePrivateCrtKeySpec key = raw.generateKeySpec(random);
+                final BigInteger n = key.getModulus();
+                final BigInteger c = new BigInteger(n.bitLength() - 1, random);
+                report(raw.toString(), "raw public op", seconds, () -> c.modPow(key.getPublicExponent(), n));
+                report(raw.toString(), "raw private op (no CRT)", seconds, () -> c.modPow(key.getPrivateExponent(), n));
+                report(raw.toString(), "raw private op (CRT)", seconds, () -> MultiPrimeRSA.privateOp(key, c));
+            }
+
+            final KeyPair kp = profile.generateKeyPair();
+            final RSAPrivateCrtKey privateKey = profile.crtKey(kp.getPrivate());
+            final Cipher enc = Cipher.getInstance(HybridRSA.RSA);
+            final Cipher dec = Cipher.getInstance(HybridRSA.RSA);
+            enc.init(Cipher.ENCRYPT_MODE, kp.getPublic());
+            dec.init(Cipher.DECRYPT_MODE, privateKey);
+            final byte[] ct = enc.doFinal(message);
+
+            final Signature signer = Signature.getInstance("SHA256withRSA");
+            signer.initSign(privateKey);
+            final Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(kp.getPublic());
+            signer.update(message);
+            final byte[] signature = signer.sign();
+
+            report(profile.toString(), "JDK keygen", seconds, profile::generateKeyPair);
+            report(profile.toString(), "JDK OAEP encrypt", seconds, () -> enc.doFinal(message));
+            report(profile.toString(), "JDK OAEP decrypt", seconds, () -> dec.doFinal(ct));
+            report(profile.toString(), "JDK sign", seconds, () -> {
+                signer.update(message);
+                signer.sign();
+            });
+            report(profile.toString(), "JDK verify", seconds, () -> {
+                verifier.update(message);
+                verifier.verify(signature);
+            });
+        }
+    }
+
+    private static void report(final String profile, final String name, final double seconds,
+                               final Operation operation) throws Exception {
+        // warm up for a tenth of the time, then measure
+        measure(seconds / 10, operation);
+        System.out.printf("%-12s %-22s %12.1f%n", profile, name, measure(seconds, operation));
+    }
+
+    /**
+     * Repeats the operation for (at least) the given time; always runs it at least once.
+     *
+     * @return operations per second
+     */
+    private static double measure(final double seconds, final Operation operation) throws Exception {
+        final long budget = (long) (seconds * 1e9);
+        final long start = System.nanoTime();
+        long count = 0, elapsed;
+        do {
+            operation.run();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return count / (elapsed / 1e9);
+    }
+}
@@ -5,7 +5,6 @@ import fri.isp.Agent;
 import javax.crypto.Cipher;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 
 /**
  * - Try to set the RSA modulus size manually
@@ -27,8 +26,9 @@ public class RSAExample {
 
         // STEP 1: Bob creates his public and private key pair.
         // Alice receives Bob's public key.
-        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
-        final KeyPair bobKP = kpg.generateKeyPair();
+        // The profile sets the modulus size; the generated private key carries the CRT
+        // parameters, which makes decryption about three times faster (see RSABenchmark)
+        final KeyPair bobKP = RSAProfile.RSA_3072.generateKeyPair();
 
         // STEP 2: Alice creates Cipher object defining cipher algorithm.
         // She then encrypts the clear-text and sends it to Bob.
@@ -42,7 +42,7 @@ public class RSAExample {
 
         // STEP 4: Bob decrypts the cipher text using the same algorithm and his private key.
         final Cipher rsaDec = Cipher.getInstance(algorithm);
-        rsaDec.init(Cipher.DECRYPT_MODE, bobKP.getPrivate());
+        rsaDec.init(Cipher.DECRYPT_MODE, RSAProfile.RSA_3072.crtKey(bobKP.getPrivate()));
         final byte[] decryptedText = rsaDec.doFinal(ct);
 
         // STEP 5: Bob displays the clear text
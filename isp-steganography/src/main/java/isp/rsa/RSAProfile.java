@@ -0,0 +1,82 @@
+package isp.rsa;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.RSAKeyGenParameterSpec;
+
+/**
+ * RSA key parameters for the JDK provider: the modulus size (2048, 3072 or 4096 bits).
+ * <p>
+ * Private-key operations are much faster with the Chinese Remainder Theorem (CRT): instead of
+ * one exponentiation modulo n, we do one exponentiation modulo each (much smaller) prime and
+ * recombine the results. The JDK provider uses CRT whenever the private key is an
+ * {@link RSAPrivateCrtKey}, which is what {@link #generateKeyPair()} gives; a key from elsewhere
+ * goes through {@link #crtKey(PrivateKey)} first, which rejects keys without CRT parameters.
+ * <p>
+ * Multi-prime keys, which the JDK provider neither generates nor accepts, are in {@link MultiPrimeRSA}.
+ */
+public final class RSAProfile {
+    public static final RSAProfile RSA_2048 = new RSAProfile(2048);
+    public static final RSAProfile RSA_3072 = new RSAProfile(3072);
+    public static final RSAProfile RSA_4096 = new RSAProfile(4096);
+
+    private final int bits;
+
+    private RSAProfile(final int bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * @param bits modulus size: 2048, 3072 or 4096
+     * @return profile
+     */
+    public static RSAProfile of(final int bits) {
+        if (bits != 2048 && bits != 3072 && bits != 4096)
+            throw new IllegalArgumentException("Unsupported modulus size: " + bits);
+        return new RSAProfile(bits);
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    /**
+     * Generates a key pair with the JDK provider. The private key is an {@link RSAPrivateCrtKey}.
+     *
+     * @return key pair
+     */
+    public KeyPair generateKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(new RSAKeyGenParameterSpec(bits, RSAKeyGenParameterSpec.F4));
+        return kpg.generateKeyPair();
+    }
+
+    /**
+     * Checks that a private key of this profile will be used with CRT.
+     *
+     * @param key RSA private key
+     * @return the key, as a CRT key
+     * @throws InvalidKeyException if the key has no CRT parameters, or a modulus of another size
+     */
+    public RSAPrivateCrtKey crtKey(final PrivateKey key) throws InvalidKeyException {
+        if (!(key instanceof RSAPrivateCrtKey))
+            throw new InvalidKeyException("Not an RSA private key with CRT parameters");
+        final RSAPrivateCrtKey crt = (RSAPrivateCrtKey) key;
+        if (crt.getPrimeP() == null || crt.getPrimeP().signum() <= 0 || crt.getCrtCoefficient() == null
+                || crt.getCrtCoefficient().signum() <= 0)
+            throw new InvalidKeyException("The RSA private key has no CRT parameters");
+        if (crt.getModulus().bitLength() != bits)
+            throw new InvalidKeyException(String.format("Expected a %d-bit modulus, got %d bits",
+                    bits, crt.getModulus().bitLength()));
+        return crt;
+    }
+
+    @Override
+    public String toString() {
+        return "RSA-" + bits;
+    }
+}
@@ -0,0 +1,765 @@
+package isp.steganography;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes carrier images as PNG files, without the overhead of {@code ImageIO}'s
+ * general-purpose PNG codec.
+ * <p>
+ * Non-interlaced grey, RGB and RGBA files with 8 bits per sample are decoded straight into the
+ * array of a {@link BufferedImage#TYPE_BYTE_GRAY}, {@link BufferedImage#TYPE_3BYTE_BGR} or
+ * {@link BufferedImage#TYPE_4BYTE_ABGR} image, skipping metadata (but checking the CRC of every
+ * chunk, up to the required IEND chunk); other files are read by
+ * {@code ImageIO} and converted to {@link BufferedImage#TYPE_INT_RGB} or
+ * {@link BufferedImage#TYPE_INT_ARGB} if {@link RasterBits} cannot work on their raster.
+ * <p>
+ * Images are written with a chosen deflate level and row filter. Compression is what makes
+ * saving a large carrier slow: with level 1 and the {@link Filter#UP} filter, a 24-megapixel
+ * photograph is saved in about half the time {@code ImageIO} takes with its defaults, into a
+ * smaller file; higher levels and {@link Filter#ADAPTIVE} trade time for size. All settings are
+ * lossless. {@link #writeAsync} compresses on a background thread, so that a batch
+ * job encodes the next carrier while the previous one is being saved.
+ */
+public final class CarrierIO implements AutoCloseable {
+    /**
+     * PNG row filters; {@link #ADAPTIVE} picks for every row the filter whose output has the
+     * smallest sum of absolute (signed) values, as {@code ImageIO} and libpng do.
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IHDR = chunkType("IHDR");
+    private static final int PLTE = chunkType("PLTE");
+    private static final int TRNS = chunkType("tRNS");
+    private static final int IDAT = chunkType("IDAT");
+    private static final int IEND = chunkType("IEND");
+
+    /**
+     * Size of the IDAT chunks written, and of the I/O buffers.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int level;
+    private final Filter filter;
+    private final ThreadPoolExecutor writer;
+    private IOException failure;
+
+    /**
+     * @param level  deflate level, 0 (store) to 9 (smallest)
+     * @param filter row filter
+     */
+    public CarrierIO(final int level, final Filter filter) {
+        if (level < 0 || level > 9)
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9");
+        this.level = level;
+        this.filter = filter;
+        // one image is compressed while the next one waits; beyond that, the caller saves it itself.
+        // Unlike CallerRunsPolicy, which silently drops the task (and so never completes its future)
+        // once the pool is shut down, this rejects it then.
+        this.writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1), (task, pool) -> {
+            if (pool.isShutdown())
+                throw new RejectedExecutionException("Closed");
+            task.run();
+        });
+        this.writer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reads an image, into a raster {@link RasterBits} supports.
+     *
+     * @throws IOException If the file cannot be read or is not an image
+     */
+    public static BufferedImage read(final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            final BufferedImage image = readPng(in);
+            if (image != null)
+                return image;
+        }
+        return readImageIO(file);
+    }
+
+    /**
+     * Writes the image as a PNG file.
+     *
+     * @throws IOException If an error occurs while writing to file
+     */
+    public void write(final BufferedImage image, final Path file) throws IOException {
+        final Rows rows = Rows.of(image);
+        if (rows == null) {
+            writeImageIO(image, file);
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE)) {
+            writePng(image, rows, out);
+        }
+    }
+
+    /**
+     * Writes the image as a PNG file on the background thread, or on the calling one while another
+     * image is already waiting. The image must not be modified until the returned future is done.
+     *
+     * @return future that completes when the file is written, or fails with its I/O exception
+     * @throws IllegalStateException if this has been closed
+     */
+    public Future<Void> writeAsync(final BufferedImage image, final Path file) {
+        try {
+            return writer.submit(() -> {
+                try {
+                    write(image, file);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        if (failure == null)
+                            failure = e;
+                    }
+                    throw e;
+                }
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Closed", e);
+        }
+    }
+
+    /**
+     * Waits for the pending writes.
+     *
+     * @throws IOException the first exception of a write that failed
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        synchronized (this) {
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * @return the image, or {@code null} if the file is not a PNG file this decoder handles
+     */
+    private static BufferedImage readPng(final DataInputStream in) throws IOException {
+        final byte[] signature = new byte[SIGNATURE.length];
+        if (in.readNBytes(signature, 0, signature.length) != signature.length || !Arrays.equals(signature, SIGNATURE))
+            return null;
+        if (in.readInt() != 13 || in.readInt() != IHDR)
+            throw new IOException("Invalid PNG header");
+        final byte[] header = new byte[13];
+        in.readFully(header);
+        checkCrc(in, IHDR, header, header.length);
+
+        final ByteBuffer ihdr = ByteBuffer.wrap(header);
+        final int width = ihdr.getInt();
+        final int height = ihdr.getInt();
+        final int depth = ihdr.get();
+        final int colorType = ihdr.get();
+        ihdr.get(); // compression and filter method: 0 is the only one defined
+        ihdr.get();
+        final int interlace = ihdr.get();
+        final int type = colorType == 0 ? BufferedImage.TYPE_BYTE_GRAY
+                : colorType == 2 ? BufferedImage.TYPE_3BYTE_BGR
+                : colorType == 6 ? BufferedImage.TYPE_4BYTE_ABGR : -1;
+        if (depth != 8 || interlace != 0 || type < 0)
+            return null;
+        final int channels = colorType == 0 ? 1 : colorType == 2 ? 3 : 4;
+        if (width <= 0 || height <= 0 || (long) width * height * channels > Integer.MAX_VALUE - 8)
+            throw new IOException(String.format("Invalid PNG size: %dx%d", width, height));
+
+        // skip ancillary chunks up to the image data; a palette or transparency makes it another type
+        int length = in.readInt();
+        int chunk = in.readInt();
+        while (chunk != IDAT) {
+            if (chunk == PLTE || chunk == TRNS)
+                return null;
+            if (chunk == IEND || (chunk & 0x20000000) == 0)
+                throw new IOException("Invalid PNG chunk before the image data");
+            skipChunk(in, chunk, length);
+            length = in.readInt();
+            chunk = in.readInt();
+        }
+
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Rows rows = Rows.of(image);
+        final Inflater inflater = new Inflater();
+        if (length < 0)
+            throw new IOException("Invalid PNG chunk length");
+        final IdatInputStream idat = new IdatInputStream(in, length);
+        try (DataInputStream data = new DataInputStream(new InflaterInputStream(idat, inflater, BUFFER_SIZE))) {
+            final byte[] line = new byte[width * channels + 1];
+            byte[] cur = new byte[width * channels];
+            byte[] prev = new byte[width * channels];
+            for (int y = 0; y < height; y++) {
+                data.readFully(line);
+                unfilter(line, prev, channels, cur);
+                rows.set(y, cur);
+                final byte[] swap = prev;
+                prev = cur;
+                cur = swap;
+            }
+            // read the image data to its end, so that the CRC of the last IDAT chunk is checked
+            idat.drain();
+        } finally {
+            inflater.end();
+        }
+
+        // only ancillary chunks may follow, up to the IEND chunk
+        length = idat.nextLength;
+        chunk = idat.nextType;
+        while (chunk != IEND) {
+            if ((chunk & 0x20000000) == 0)
+                throw new IOException("Invalid PNG chunk after the image data");
+            skipChunk(in, chunk, length);
+            length = in.readInt();
+            chunk = in.readInt();
+        }
+        if (length != 0)
+            throw new IOException("Invalid PNG IEND chunk");
+        skipChunk(in, IEND, 0);
+        return image;
+    }
+
+    private static BufferedImage readImageIO(final Path file) throws IOException {
+        final BufferedImage image = ImageIO.read(file.toFile());
+        if (image == null)
+            throw new IOException("Not an image: " + file);
+        return supported(image);
+    }
+
+    /**
+     * @return the image, or a copy of it in a raster {@link RasterBits} supports
+     */
+    static BufferedImage supported(final BufferedImage image) {
+        if (RasterBits.supports(image))
+            return image;
+
+        final BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    private void writePng(final BufferedImage image, final Rows rows, final OutputStream out) throws IOException {
+        out.write(SIGNATURE);
+        final int colorType = rows.channels == 1 ? 0 : rows.channels == 2 ? 4 : rows.channels == 3 ? 2 : 6;
+        writeChunk(out, IHDR, ByteBuffer.allocate(13).putInt(image.getWidth()).putInt(image.getHeight())
+                .put((byte) 8).put((byte) colorType).put((byte) 0).put((byte) 0).put((byte) 0).array(), 13);
+
+        final Deflater deflater = new Deflater(level);
+        deflater.setStrategy(filter == Filter.NONE ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED);
+        try (DeflaterOutputStream idat = new DeflaterOutputStream(new IdatOutputStream(out), deflater, BUFFER_SIZE)) {
+            final int n = image.getWidth() * rows.channels;
+            byte[] cur = new byte[n];
+            byte[] prev = new byte[n];
+            final byte[] line = new byte[n + 1];
+            final byte[] candidate = filter == Filter.ADAPTIVE ? new byte[n + 1] : null;
+            for (int y = 0; y < image.getHeight(); y++) {
+                rows.get(y, cur);
+                if (filter == Filter.ADAPTIVE)
+                    filterAdaptive(cur, prev, rows.channels, line, candidate);
+                else
+                    filter(filter.ordinal(), cur, prev, rows.channels, line);
+                idat.write(line);
+                final byte[] swap = prev;
+                prev = cur;
+                cur = swap;
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, IEND, new byte[0], 0);
+    }
+
+    private void writeImageIO(final BufferedImage image, final Path file) throws IOException {
+        final ImageWriter png = ImageIO.getImageWritersByFormatName("png").next();
+        try (OutputStream stream = Files.newOutputStream(file);
+             ImageOutputStream out = new MemoryCacheImageOutputStream(stream)) {
+            final ImageWriteParam param = png.getDefaultWriteParam();
+            // ImageIO takes the deflate level as a quality, level = (int) (9 * (1 - quality))
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(0, 1 - (level + 0.5f) / 9));
+            png.setOutput(out);
+            png.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            png.dispose();
+        }
+    }
+
+    /**
+     * Filters a row with the given PNG filter type into {@code dst}, type byte first.
+     */
+    private static void filter(final int type, final byte[] cur, final byte[] prev, final int bpp, final byte[] dst) {
+        final int n = cur.length;
+        dst[0] = (byte) type;
+        switch (type) {
+            case 0:
+                System.arraycopy(cur, 0, dst, 1, n);
+                break;
+            case 1:
+                System.arraycopy(cur, 0, dst, 1, Math.min(bpp, n));
+                for (int i = bpp; i < n; i++)
+                    dst[i + 1] = (byte) (cur[i] - cur[i - bpp]);
+                break;
+            case 2:
+                for (int i = 0; i < n; i++)
+                    dst[i + 1] = (byte) (cur[i] - prev[i]);
+                break;
+            case 3:
+                for (int i = 0; i < Math.min(bpp, n); i++)
+                    dst[i + 1] = (byte) (cur[i] - ((prev[i] & 0xff) >>> 1));
+                for (int i = bpp; i < n; i++)
+                    dst[i + 1] = (byte) (cur[i] - (((cur[i - bpp] & 0xff) + (prev[i] & 0xff)) >>> 1));
+                break;
+            default:
+                for (int i = 0; i < Math.min(bpp, n); i++)
+                    dst[i + 1] = (byte) (cur[i] - prev[i]);
+                for (int i = bpp; i < n; i++)
+                    dst[i + 1] = (byte) (cur[i] - paeth(cur[i - bpp] & 0xff, prev[i] & 0xff, prev[i - bpp] & 0xff));
+        }
+    }
+
+    /**
+     * Filters a row with each PNG filter type and leaves the one with the smallest sum of absolute
+     * values in {@code dst}.
+     */
+    private static void filterAdaptive(final byte[] cur, final byte[] prev, final int bpp, final byte[] dst,
+                                       final byte[] candidate) {
+        long best = Long.MAX_VALUE;
+        for (int type = 0; type <= 4; type++) {
+            filter(type, cur, prev, bpp, candidate);
+            long sum = 0;
+            for (int i = 1; i < candidate.length; i++)
+                sum += Math.abs(candidate[i]);
+            if (sum < best) {
+                best = sum;
+                System.arraycopy(candidate, 0, dst, 0, candidate.length);
+            }
+        }
+    }
+
+    /**
+     * Reverses the filter of a row read from the file, type byte first, into {@code cur}.
+     */
+    private static void unfilter(final byte[] line, final byte[] prev, final int bpp, final byte[] cur)
+            throws IOException {
+        final int n = cur.length;
+        switch (line[0]) {
+            case 0:
+                System.arraycopy(line, 1, cur, 0, n);
+                break;
+            case 1:
+                System.arraycopy(line, 1, cur, 0, Math.min(bpp, n));
+                for (int i = bpp; i < n; i++)
+                    cur[i] = (byte) (line[i + 1] + cur[i - bpp]);
+                break;
+            case 2:
+                for (int i = 0; i < n; i++)
+                    cur[i] = (byte) (line[i + 1] + prev[i]);
+                break;
+            case 3:
+                for (int i = 0; i < Math.min(bpp, n); i++)
+                    cur[i] = (byte) (line[i + 1] + ((prev[i] & 0xff) >>> 1));
+                for (int i = bpp; i < n; i++)
+                    cur[i] = (byte) (line[i + 1] + (((cur[i - bpp] & 0xff) + (prev[i] & 0xff)) >>> 1));
+                break;
+            case 4:
+                for (int i = 0; i < Math.min(bpp, n); i++)
+                    cur[i] = (byte) (line[i + 1] + prev[i]);
+                for (int i = bpp; i < n; i++)
+                    cur[i] = (byte) (line[i + 1] + paeth(cur[i - bpp] & 0xff, prev[i] & 0xff, prev[i - bpp] & 0xff));
+                break;
+            default:
+                throw new IOException("Invalid PNG filter type: " + line[0]);
+        }
+    }
+
+    private static int paeth(final int a, final int b, final int c) {
+        final int pa = Math.abs(b - c);
+        final int pb = Math.abs(a - c);
+        final int pc = Math.abs(a + b - 2 * c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    private static void writeChunk(final OutputStream out, final int type, final byte[] data, final int length)
+            throws IOException {
+        final byte[] prefix = ByteBuffer.allocate(8).putInt(length).putInt(type).array();
+        final CRC32 crc = new CRC32();
+        crc.update(prefix, 4, 4);
+        crc.update(data, 0, length);
+        out.write(prefix);
+        out.write(data, 0, length);
+        out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+
+    private static void checkCrc(final DataInputStream in, final int type, final byte[] data, final int length)
+            throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(4).putInt(type).array());
+        crc.update(data, 0, length);
+        if (in.readInt() != (int) crc.getValue())
+            throw new IOException("Corrupt PNG chunk: CRC mismatch");
+    }
+
+    /**
+     * Reads past the data of a chunk whose length and type have been read, checking its CRC.
+     */
+    private static void skipChunk(final DataInputStream in, final int type, final int length) throws IOException {
+        if (length < 0)
+            throw new IOException("Invalid PNG chunk length");
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(4).putInt(type).array());
+        final byte[] buffer = new byte[Math.min(length, BUFFER_SIZE)];
+        for (int n = length; n > 0; ) {
+            final int read = in.read(buffer, 0, Math.min(n, buffer.length));
+            if (read < 0)
+                throw new IOException("Truncated PNG file");
+            crc.update(buffer, 0, read);
+            n -= read;
+        }
+        if (in.readInt() != (int) crc.getValue())
+            throw new IOException("Corrupt PNG chunk: CRC mismatch");
+    }
+
+    private static int chunkType(final String name) {
+        return ByteBuffer.wrap(name.getBytes(StandardCharsets.US_ASCII)).getInt();
+    }
+
+    /**
+     * The data of consecutive IDAT chunks, starting after the header of the first one; the CRC of
+     * each chunk is checked as its end is reached. At the end, the length and type of the chunk
+     * that follows have been read.
+     */
+    private static final class IdatInputStream extends InputStream {
+        private final DataInputStream in;
+        private final CRC32 crc = new CRC32();
+        private int remaining;
+        private boolean done;
+        private int nextLength;
+        private int nextType;
+
+        IdatInputStream(final DataInputStream in, final int length) {
+            this.in = in;
+            this.remaining = length;
+            crc.update(ByteBuffer.allocate(4).putInt(IDAT).array());
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int offset, final int length) throws IOException {
+            while (remaining == 0) {
+                if (done)
+                    return -1;
+                if (in.readInt() != (int) crc.getValue())
+                    throw new IOException("Corrupt PNG chunk: CRC mismatch");
+                remaining = in.readInt();
+                final int type = in.readInt();
+                if (type != IDAT) {
+                    done = true;
+                    nextLength = remaining;
+                    nextType = type;
+                    remaining = 0;
+                    return -1;
+                }
+                if (remaining < 0)
+                    throw new IOException("Invalid PNG chunk length");
+                crc.reset();
+                crc.update(ByteBuffer.allocate(4).putInt(IDAT).array());
+            }
+            final int n = in.read(b, offset, Math.min(length, remaining));
+            if (n < 0)
+                throw new IOException("Truncated PNG file");
+            crc.update(b, offset, n);
+            remaining -= n;
+            return n;
+        }
+
+        /**
+         * Reads what is left of the image data.
+         */
+        void drain() throws IOException {
+            final byte[] b = new byte[BUFFER_SIZE];
+            while (read(b, 0, b.length) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    /**
+     * Cuts what is written into IDAT chunks of {@link #BUFFER_SIZE} bytes; closing it writes the
+     * last chunk, but leaves the underlying stream open.
+     */
+    private static final class IdatOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+
+        IdatOutputStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (count == buffer.length)
+                flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length)
+                    flushChunk();
+                final int n = Math.min(length, buffer.length - count);
+                System.arraycopy(b, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (count > 0)
+                flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk(out, IDAT, buffer, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Rows of an image's raster as PNG samples: grey or red, green, blue, then alpha, read and
+     * written straight on the array behind the raster, like {@link RasterBits}.
+     */
+    private static final class Rows {
+        private final byte[] bytes;
+        private final int[] ints;
+        private final int width;
+        private final int base;
+        private final int pixelStride;
+        private final int scanlineStride;
+        /**
+         * Per PNG channel, the offset of its sample from the pixel's index (bytes) or its position
+         * within the packed int (ints).
+         */
+        private final int[] offsets;
+        private final int channels;
+
+        private Rows(final byte[] bytes, final int[] ints, final int width, final int base, final int pixelStride,
+                     final int scanlineStride, final int[] offsets) {
+            this.bytes = bytes;
+            this.ints = ints;
+            this.width = width;
+            this.base = base;
+            this.pixelStride = pixelStride;
+            this.scanlineStride = scanlineStride;
+            this.offsets = offsets;
+            this.channels = offsets.length;
+        }
+
+        /**
+         * @return the rows, or {@code null} if the image does not hold plain 8-bit grey or RGB
+         * samples in one of the raster layouts {@link RasterBits} supports
+         */
+        static Rows of(final BufferedImage image) {
+            final ColorModel colorModel = image.getColorModel();
+            final WritableRaster raster = image.getRaster();
+            final SampleModel model = raster.getSampleModel();
+            final DataBuffer buffer = raster.getDataBuffer();
+            final int space = colorModel.getColorSpace().getType();
+            final int channels = colorModel.getNumComponents();
+            if (colorModel.isAlphaPremultiplied() || channels != model.getNumBands()
+                    || !(space == ColorSpace.TYPE_GRAY || space == ColorSpace.TYPE_RGB && colorModel.getColorSpace().isCS_sRGB()))
+                return null;
+            for (int band = 0; band < channels; band++)
+                if (model.getSampleSize(band) != 8)
+                    return null;
+
+            // the colour components come first, followed by alpha, as in PNG
+            if (model instanceof ComponentSampleModel && buffer instanceof DataBufferByte && buffer.getNumBanks() == 1) {
+                final ComponentSampleModel component = (ComponentSampleModel) model;
+                return new Rows(((DataBufferByte) buffer).getData(), null, image.getWidth(),
+                        buffer.getOffset() - raster.getSampleModelTranslateY() * component.getScanlineStride()
+                                - raster.getSampleModelTranslateX() * component.getPixelStride(),
+                        component.getPixelStride(), component.getScanlineStride(), component.getBandOffsets());
+            }
+            if (model instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt) {
+                final SinglePixelPackedSampleModel packed = (SinglePixelPackedSampleModel) model;
+                return new Rows(null, ((DataBufferInt) buffer).getData(), image.getWidth(),
+                        buffer.getOffset() - raster.getSampleModelTranslateY() * packed.getScanlineStride()
+                                - raster.getSampleModelTranslateX(),
+                        1, packed.getScanlineStride(), packed.getBitOffsets());
+            }
+            return null;
+        }
+
+        void get(final int y, final byte[] dst) {
+            int index = base + y * scanlineStride;
+            for (int x = 0, i = 0; x < width; x++, index += pixelStride)
+                for (int c = 0; c < channels; c++, i++)
+                    dst[i] = bytes != null ? bytes[index + offsets[c]] : (byte) (ints[index] >>> offsets[c]);
+        }
+
+        void set(final int y, final byte[] src) {
+            int index = base + y * scanlineStride;
+            if (bytes != null) {
+                for (int x = 0, i = 0; x < width; x++, index += pixelStride)
+                    for (int c = 0; c < channels; c++, i++)
+                        bytes[index + offsets[c]] = src[i];
+                return;
+            }
+            for (int x = 0, i = 0; x < width; x++, index++) {
+                int pixel = 0;
+                for (int c = 0; c < channels; c++, i++)
+                    pixel |= (src[i] & 0xff) << offsets[c];
+                ints[index] = pixel;
+            }
+        }
+    }
+
+    /**
+     * Compares reading and writing the bundled images with {@code ImageIO} and with this class at
+     * a few settings, then times a batch job that encodes payloads into all of them, saving
+     * synchronously and on the background thread.
+     * Usage: {@code CarrierIO [image directory]} (default: images).
+     */
+    public static void main(String[] args) throws Exception {
+        final Path dir = Path.of(args.length > 0 ? args[0] : "images");
+        final List<Path> files = new ArrayList<>();
+        try (var list = Files.list(dir)) {
+            list.filter(f -> f.getFileName().toString().endsWith(".png")
+                    && !f.getFileName().toString().startsWith("steganogram")).sorted().forEach(files::add);
+        }
+        final Path out = Files.createTempFile("carrier", ".png");
+        final CarrierIO[] settings = {new CarrierIO(1, Filter.UP), new CarrierIO(4, Filter.ADAPTIVE),
+                new CarrierIO(6, Filter.PAETH)};
+        try {
+            System.out.printf("%-18s %-14s %9s %9s %11s%n", "image", "codec", "read ms", "write ms", "size");
+            for (Path file : files) {
+                long start = System.nanoTime();
+                final BufferedImage reference = ImageIO.read(file.toFile());
+                final double read = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                ImageIO.write(reference, "png", out.toFile());
+                System.out.printf("%-18s %-14s %9.1f %9.1f %11d%n", file.getFileName(), "ImageIO", read,
+                        (System.nanoTime() - start) / 1e6, Files.size(out));
+
+                for (CarrierIO io : settings) {
+                    start = System.nanoTime();
+                    final BufferedImage image = read(file);
+                    final double readFast = (System.nanoTime() - start) / 1e6;
+                    start = System.nanoTime();
+                    io.write(image, out);
+                    final double write = (System.nanoTime() - start) / 1e6;
+                    if (!samePixels(reference, read(out)))
+                        throw new IllegalStateException("Round trip failed: " + file);
+                    System.out.printf("%-18s %-14s %9.1f %9.1f %11d%n", "", io, readFast, write, Files.size(out));
+                }
+            }
+        } finally {
+            Files.delete(out);
+            for (CarrierIO io : settings)
+                io.close();
+        }
+
+        // a batch job: the encoding of a carrier overlaps with the saving of the previous one
+        final Path target = Files.createTempDirectory("carriers");
+        final Random random = new Random(42);
+        try {
+            for (boolean async : new boolean[]{false, true}) {
+                final long start = System.nanoTime();
+                try (CarrierIO io = new CarrierIO(1, Filter.UP)) {
+                    for (Path file : files) {
+                        final BufferedImage image = read(file);
+                        final byte[] payload = new byte[(int) ImageSteganography.capacity(image, Layout.DEFAULT)];
+                        random.nextBytes(payload);
+                        ImageSteganography.encodeBits(payload, image, Layout.DEFAULT);
+                        final Path steganogram = target.resolve(file.getFileName());
+                        if (async)
+                            io.writeAsync(image, steganogram);
+                        else
+                            io.write(image, steganogram);
+                    }
+                }
+                System.out.printf("batch of %d carriers, %s saving: %d ms%n", files.size(),
+                        async ? "background" : "synchronous", (System.nanoTime() - start) / 1_000_000);
+            }
+        } finally {
+            try (var list = Files.list(target)) {
+                for (Path file : (Iterable<Path>) list::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(target);
+        }
+    }
+
+    private static boolean samePixels(final BufferedImage a, final BufferedImage b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight())
+            return false;
+        for (int y = 0; y < a.getHeight(); y++)
+            if (!Arrays.equals(a.getRGB(0, y, a.getWidth(), 1, null, 0, a.getWidth()),
+                    b.getRGB(0, y, b.getWidth(), 1, null, 0, b.getWidth())))
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "level " + level + " " + filter;
+    }
+}
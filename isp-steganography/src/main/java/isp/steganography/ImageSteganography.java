@@ -1,19 +1,21 @@
 package isp.steganography;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.imageio.ImageIO;
-import java.awt.*;
+import javax.crypto.spec.SecretKeySpec;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.util.Arrays;
-import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Assignments:
@@ -25,8 +27,30 @@ import java.util.BitSet;
  * 3. Optional: Enhance the capacity of the carrier:
  * -- Use the remaining two color channels;
  * -- Use additional bits.
+ * <p>
+ * Which samples and bits carry the payload is given by a {@link Layout}; it is stored in a header
+ * in front of the payload, and the encrypted variant authenticates it together with the length.
+ * The encrypted variant also scatters the payload over the image in a pixel order derived from
+ * the key (see {@link PixelPermutation}) instead of filling it from the top left corner.
  */
 public class ImageSteganography {
+    /**
+     * Header bit that marks a payload scattered by a key-derived {@link PixelPermutation}.
+     */
+    static final int SCATTERED = 0x40;
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+
+    /**
+     * Writes the steganograms: fast deflate settings, as saving takes longer than encoding.
+     */
+    private static final CarrierIO IO = new CarrierIO(1, CarrierIO.Filter.UP);
+
+    /**
+     * Bytes encrypted and encoded, or decoded and decrypted, at a time.
+     */
+    private static final int ENCRYPT_CHUNK = 1 << 20;
 
     public static void main(String[] args) throws Exception {
         final byte[] payload = "My secret message".getBytes(StandardCharsets.UTF_8);
@@ -46,6 +70,16 @@ public class ImageSteganography {
         final byte[] decoded2 = ImageSteganography.decryptAndDecode("images/steganogram-encrypted.png", key);
 
         System.out.printf("Decoded: %s%n", new String(decoded2, StandardCharsets.UTF_8));
+
+//        Assignment 3: all three colour channels, two bits each
+        final Layout layout = new Layout(2, Layout.Channel.RED, Layout.Channel.GREEN, Layout.Channel.BLUE);
+        final BufferedImage cover = loadImage("images/2_Morondava.png");
+        System.out.printf("Capacity of layout %s: %d bytes (layout %s: %d bytes)%n",
+                layout, encryptedCapacity(cover, layout), Layout.DEFAULT, encryptedCapacity(cover, Layout.DEFAULT));
+        ImageSteganography.encryptAndEncode(payload, "images/2_Morondava.png", "images/steganogram-encrypted.png", key, layout);
+        final byte[] decoded3 = ImageSteganography.decryptAndDecode("images/steganogram-encrypted.png", key);
+
+        System.out.printf("Decoded: %s%n", new String(decoded3, StandardCharsets.UTF_8));
     }
 
     /**
@@ -57,16 +91,27 @@ public class ImageSteganography {
      * @throws IOException If the file does not exist, or the saving fails.
      */
     public static void encode(final byte[] pt, final String inFile, final String outFile) throws IOException {
+        encode(pt, inFile, outFile, Layout.DEFAULT);
+    }
+
+    /**
+     * Encodes given payload into the cover image in the given layout and saves the steganogram.
+     *
+     * @param pt      The payload to be encoded
+     * @param inFile  The filename of the cover image
+     * @param outFile The filename of the steganogram
+     * @param layout  The samples and bits that carry the payload
+     * @throws IOException If the file does not exist, or the saving fails.
+     */
+    public static void encode(final byte[] pt, final String inFile, final String outFile, final Layout layout)
+            throws IOException {
         // load the image
         final BufferedImage image = loadImage(inFile);
 
         final byte[] padded_pt = ByteBuffer.allocate(4 + pt.length).putInt(pt.length).put(pt).array();
 
-        // Convert byte array to bit sequence
-        final BitSet bits = BitSet.valueOf(padded_pt);
-
-        // encode the bits into image
-        encodeBits(bits, image);
+        // encode the bytes into image
+        encodeBits(padded_pt, image, layout);
 
         // save the modified image into outFile
         saveImage(outFile, image);
@@ -83,12 +128,12 @@ public class ImageSteganography {
         // load the image
         final BufferedImage image = loadImage(fileName);
 
-        // read all LSBs
-        final BitSet bits = decodeBits(image);
-        final byte[] decodedBytes = bits.toByteArray();
-
-        // convert them to bytes and remove first 4 bytes of length
-        return Arrays.copyOfRange(decodedBytes, 4, decodedBytes.length);
+        // read the layout, the length from the first 4 bytes, then just the payload
+        if ((decodeHeader(image) & SCATTERED) != 0)
+            throw new IllegalArgumentException("The payload is scattered with a key, use decryptAndDecode");
+        final Layout layout = decodeLayout(image);
+        final int length = ByteBuffer.wrap(decodeBits(image, layout, 0, 4)).getInt();
+        return decodeBits(image, layout, 4, length);
     }
 
     /**
@@ -102,32 +147,31 @@ public class ImageSteganography {
      */
     public static void encryptAndEncode(final byte[] pt, final String inFile, final String outFile, final Key key)
             throws Exception {
+        encryptAndEncode(pt, inFile, outFile, key, Layout.DEFAULT);
+    }
+
+    /**
+     * Encrypts and encodes given plain text into the cover image in the given layout and then saves
+     * the steganogram. The layout is authenticated along with the length, and the pixels that carry
+     * the payload are chosen by a permutation derived from the key.
+     *
+     * @param pt      The plaintext of the payload
+     * @param inFile  cover image filename
+     * @param outFile steganogram filename
+     * @param key     symmetric secret key
+     * @param layout  samples and bits that carry the payload
+     * @throws Exception
+     */
+    public static void encryptAndEncode(final byte[] pt, final String inFile, final String outFile, final Key key,
+                                        final Layout layout) throws Exception {
 
         // load the image
         final BufferedImage image = loadImage(inFile);
 
-        // encrypt the pt with dummy length attached to see the CT length to include in the real encryption
-        // TODO EXTREMELY HACKY, is there a better way???
+        // encrypt the pt straight into the pixels, scattered
         final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
         cipher.init(Cipher.ENCRYPT_MODE, key);
-        final byte[] byte_size_dummy = ByteBuffer.allocate(4).putInt(420).array();
-        cipher.updateAAD(byte_size_dummy);
-        final int ct_size = cipher.doFinal(pt).length;
-
-        final byte[] byte_size = ByteBuffer.allocate(4).putInt(ct_size).array();
-
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        final byte[] iv = cipher.getIV();
-        cipher.updateAAD(byte_size);
-        final byte[] ct = cipher.doFinal(pt);
-        final byte[] final_bytes = ByteBuffer.allocate(Integer.BYTES + iv.length + ct.length)
-                                             .putInt(ct.length).put(iv).put(ct).array();
-
-        // Convert byte array to bit sequence
-        final BitSet bits = BitSet.valueOf(final_bytes);
-
-        // encode the bits into image
-        encodeBits(bits, image);
+        encryptBits(cipher, pt, 0, pt.length, image, layout, permutation(key, image), ForkJoinPool.commonPool());
 
         // save the modified image into outFile
         saveImage(outFile, image);
@@ -145,98 +189,285 @@ public class ImageSteganography {
         // load the image
         final BufferedImage image = loadImage(fileName);
 
-        // read all LSBs
-        final BitSet bits = decodeBits(image);
-        final byte[] decodedBytes = bits.toByteArray();
+        // read the layout, the length and the IV, then decrypt the ciphertext as it is decoded
+        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        return decryptBits(cipher, key, image, ForkJoinPool.commonPool());
+    }
 
-        final byte[] length = Arrays.copyOfRange(decodedBytes, 0, 4);
-        final byte[] iv = Arrays.copyOfRange(decodedBytes, 4, 4+12);
-        final byte[] ct = Arrays.copyOfRange(decodedBytes, 4+12, decodedBytes.length);
+    /**
+     * Capacity calculator: the largest payload {@link #encode} can hide in the image.
+     *
+     * @throws IllegalArgumentException If the image lacks a channel of the layout
+     */
+    public static long capacity(final BufferedImage image, final Layout layout) {
+        return Math.max(0, new RasterBits(image, layout, Layout.HEADER_PIXELS).capacity() - Integer.BYTES);
+    }
 
-        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        final GCMParameterSpec specs = new GCMParameterSpec(128, iv);
-        cipher.init(Cipher.DECRYPT_MODE, key, specs);
-        cipher.updateAAD(length);
-        return cipher.doFinal(ct);
+    /**
+     * Capacity calculator: the largest plaintext {@link #encryptAndEncode} can hide in the image,
+     * which leaves room for the length, the IV and the GCM tag.
+     *
+     * @throws IllegalArgumentException If the image lacks a channel of the layout
+     */
+    public static long encryptedCapacity(final BufferedImage image, final Layout layout) {
+        return Math.max(0, capacity(image, layout) - IV_LENGTH - TAG_LENGTH);
     }
 
     /**
-     * Loads an image from given filename and returns an instance of the BufferedImage
+     * Derives the order in which a scattered payload visits the pixels after the header from the
+     * key: the permutation key is HMAC-SHA256(key, "isp.steganography.permutation"), cut to 16
+     * bytes, so it is independent of the encryption key.
+     *
+     * @param key   symmetric secret key
+     * @param image cover image or steganogram
+     * @return the permutation
+     */
+    protected static PixelPermutation permutation(final Key key, final BufferedImage image)
+            throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.getEncoded(), "HmacSHA256"));
+        final byte[] tag = mac.doFinal("isp.steganography.permutation".getBytes(StandardCharsets.US_ASCII));
+        return new PixelPermutation(Arrays.copyOf(tag, 16), image.getWidth() * image.getHeight() - Layout.HEADER_PIXELS);
+    }
+
+    /**
+     * Loads an image from given filename and returns an instance of the BufferedImage. 8-bit PNG
+     * files are decoded straight into the image's raster; images whose raster cannot be accessed
+     * directly (palette or 16-bit PNGs, for instance) are converted to
+     * {@link BufferedImage#TYPE_INT_RGB} or {@link BufferedImage#TYPE_INT_ARGB}.
      *
      * @param inFile filename of the image
      * @return image
      * @throws IOException If file does not exist
      */
     protected static BufferedImage loadImage(final String inFile) throws IOException {
-        return ImageIO.read(new File(inFile));
+        return CarrierIO.read(Path.of(inFile));
     }
 
     /**
-     * Saves given image into file
+     * Saves given image into file, as a PNG file (deflate level 1, UP filter)
      *
      * @param outFile image filename
      * @param image   image to be saved
      * @throws IOException If an error occurs while writing to file
      */
     protected static void saveImage(String outFile, BufferedImage image) throws IOException {
-        ImageIO.write(image, "png", new File(outFile));
+        IO.write(image, Path.of(outFile));
     }
 
     /**
-     * Encodes bits into image. The algorithm modifies the least significant bit
-     * of the red RGB component in each pixel.
+     * Encodes bytes into image: the header with the layout into the red LSBs of the first
+     * {@link Layout#HEADER_PIXELS} pixels, then the payload into the samples and bits the layout
+     * selects, row by row, directly in the image's raster. Large payloads are split into bands of
+     * rows that are encoded in parallel on the common fork-join pool.
      *
-     * @param payload Bits to be encoded
+     * @param payload Bytes to be encoded
      * @param image   The image onto which the payload is to be encoded
+     * @param layout  The samples and bits that carry the payload
+     * @throws IllegalArgumentException If the payload does not fit into the image, or the image
+     *                                  lacks a channel of the layout
      */
-    protected static void encodeBits(final BitSet payload, final BufferedImage image) {
-        for (int x = image.getMinX(), bitCounter = 0; x < image.getWidth() && bitCounter < payload.size(); x++) {
-            for (int y = image.getMinY(); y < image.getHeight() && bitCounter < payload.size(); y++) {
-                final Color original = new Color(image.getRGB(x, y));
+    protected static void encodeBits(final byte[] payload, final BufferedImage image, final Layout layout) {
+        encodeBits(payload, image, layout, ForkJoinPool.commonPool());
+    }
 
-                // Let's modify the red component only
-                final int newRed = payload.get(bitCounter) ?
-                        original.getRed() | 0x01 : // sets LSB to 1
-                        original.getRed() & 0xfe;  // sets LSB to 0
+    /**
+     * Encodes bytes into image, with the bands of rows encoded in parallel on the given pool.
+     *
+     * @param payload Bytes to be encoded
+     * @param image   The image onto which the payload is to be encoded
+     * @param layout  The samples and bits that carry the payload
+     * @param pool    The pool the bands are encoded on
+     */
+    protected static void encodeBits(final byte[] payload, final BufferedImage image, final Layout layout,
+                                     final ForkJoinPool pool) {
+        encodeBits(payload, image, layout, null, pool);
+    }
 
-                // Create a new color object
-                final Color modified = new Color(newRed, original.getGreen(), original.getBlue());
+    /**
+     * Encodes bytes into image, visiting the pixels after the header in the order of the given
+     * permutation; the header records that the payload is scattered.
+     *
+     * @param payload     Bytes to be encoded
+     * @param image       The image onto which the payload is to be encoded
+     * @param layout      The samples and bits that carry the payload
+     * @param permutation The order of the pixels, or {@code null} for row by row
+     * @param pool        The pool the bands are encoded on
+     */
+    protected static void encodeBits(final byte[] payload, final BufferedImage image, final Layout layout,
+                                     final PixelPermutation permutation, final ForkJoinPool pool) {
+        new RasterBits(image, layout, Layout.HEADER_PIXELS, permutation).write(0, payload, 0, payload.length, pool);
+        final int header = layout.toByte() | (permutation != null ? SCATTERED : 0);
+        new RasterBits(image, Layout.DEFAULT, 0).write(0, new byte[]{(byte) header}, 0, 1);
+    }
+
+    /**
+     * Encrypts bytes into image in one pass: the length of the ciphertext is known in advance from
+     * {@link Cipher#getOutputSize(int)}, so the length and the IV are encoded first and authenticated
+     * along with the header, and the ciphertext is then encoded chunk by chunk as the cipher
+     * produces it, without holding all of it in memory.
+     *
+     * @param cipher      AES-GCM cipher, initialized for encryption
+     * @param pt          The plaintext
+     * @param offset      index of the first plaintext byte
+     * @param length      number of plaintext bytes
+     * @param image       The image onto which the payload is to be encoded
+     * @param layout      The samples and bits that carry the payload
+     * @param permutation The order of the pixels
+     * @param pool        The pool the bands are encoded on
+     * @throws IllegalArgumentException If the payload does not fit into the image; the image is
+     *                                  left unchanged
+     */
+    static void encryptBits(final Cipher cipher, final byte[] pt, final int offset, final int length,
+                            final BufferedImage image, final Layout layout, final PixelPermutation permutation,
+                            final ForkJoinPool pool) throws GeneralSecurityException {
+        final RasterBits bits = new RasterBits(image, layout, Layout.HEADER_PIXELS, permutation);
+        final byte[] iv = cipher.getIV();
+        final int ctLength = cipher.getOutputSize(length);
+        final long size = (long) Integer.BYTES + iv.length + ctLength;
+        if (size > bits.capacity())
+            throw new IllegalArgumentException(String.format(
+                    "%d bytes do not fit into the carrier (capacity: %d bytes)", size, bits.capacity()));
+
+        final byte[] prefix = ByteBuffer.allocate(Integer.BYTES + iv.length).putInt(ctLength).put(iv).array();
+        cipher.updateAAD(new byte[]{(byte) (layout.toByte() | SCATTERED)});
+        cipher.updateAAD(prefix, 0, Integer.BYTES);
+        bits.write(0, prefix, 0, prefix.length);
+
+        // an update may also release a block held back by the previous one, the final call adds the tag
+        final byte[] chunk = new byte[Math.min(ENCRYPT_CHUNK, length) + 32];
+        int position = prefix.length;
+        for (int i = 0; i < length; i += ENCRYPT_CHUNK) {
+            final int n = cipher.update(pt, offset + i, Math.min(ENCRYPT_CHUNK, length - i), chunk);
+            bits.write(position, chunk, 0, n, pool);
+            position += n;
+        }
+        final int n = cipher.doFinal(chunk, 0);
+        bits.write(position, chunk, 0, n, pool);
+
+        new RasterBits(image, Layout.DEFAULT, 0).write(0, new byte[]{(byte) (layout.toByte() | SCATTERED)}, 0, 1);
+    }
+
+    /**
+     * Decrypts bytes from the steganogram in one pass: the header and the length are checked
+     * before anything else is decoded, so a cover image or a wrong key is rejected after the first
+     * few pixels, and the ciphertext is passed to the cipher chunk by chunk as it is decoded,
+     * without a decoded copy of its own.
+     * <p>
+     * This does not bound memory by the chunk size: GCM releases no plaintext before the tag is
+     * verified, so the SunJCE provider buffers the whole ciphertext until {@code doFinal}. The peak
+     * is about the ciphertext plus the plaintext plus one chunk.
+     *
+     * @param cipher AES-GCM cipher, initialized here with the IV of the steganogram
+     * @param key    symmetric secret key
+     * @param image  steganogram
+     * @param pool   The pool the bands are decoded on
+     * @return plaintext of the payload
+     * @throws AEADBadTagException If the steganogram is not authentic, or the decoded length cannot
+     *                             be that of a ciphertext in this image
+     */
+    static byte[] decryptBits(final Cipher cipher, final Key key, final BufferedImage image,
+                              final ForkJoinPool pool) throws GeneralSecurityException {
+        final int header = decodeHeader(image);
+        final Layout layout;
+        try {
+            layout = decodeLayout(image);
+        } catch (IllegalArgumentException e) {
+            throw new AEADBadTagException(e.getMessage());
+        }
+        final PixelPermutation permutation = (header & SCATTERED) != 0 ? permutation(key, image) : null;
+        final RasterBits bits = new RasterBits(image, layout, Layout.HEADER_PIXELS, permutation);
 
-                // Replace the current pixel with the new color
-                image.setRGB(x, y, modified.getRGB());
+        final byte[] length = bits.read(0, Integer.BYTES);
+        final int ctLength = ByteBuffer.wrap(length).getInt();
+        if (ctLength < TAG_LENGTH || Integer.BYTES + IV_LENGTH + (long) ctLength > bits.capacity())
+            throw new AEADBadTagException("Invalid ciphertext length: " + ctLength);
 
-                // Uncomment to see changes in the RGB components
-                // System.out.printf("%03d bit [%d, %d]: %s -> %s%n", bitCounter, x, y, original, modified);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(8 * TAG_LENGTH,
+                bits.read(Integer.BYTES, IV_LENGTH)));
+        cipher.updateAAD(new byte[]{(byte) header});
+        cipher.updateAAD(length);
 
-                bitCounter++;
-            }
+        final byte[] pt = new byte[ctLength - TAG_LENGTH];
+        final byte[] chunk = new byte[Math.min(ENCRYPT_CHUNK, ctLength)];
+        int out = 0;
+        for (int i = 0; i < ctLength; i += chunk.length) {
+            final int n = Math.min(chunk.length, ctLength - i);
+            bits.read(Integer.BYTES + IV_LENGTH + i, chunk, 0, n, pool);
+            out += cipher.update(chunk, 0, n, pt, out);
         }
+        cipher.doFinal(pt, out);
+        return pt;
     }
 
     /**
-     * Decodes the message from the steganogram
+     * Decodes the layout from the header of the steganogram
      *
      * @param image steganogram
-     * @return {@link BitSet} instance representing the sequence of read bits
-     */
-    protected static BitSet decodeBits(final BufferedImage image) {
-        BitSet bits = new BitSet();
-        int sizeBits = 32;
-
-        for (int x = image.getMinX(), bitCounter = 0; x < image.getWidth() && bitCounter < sizeBits; x++) {
-            for (int y = image.getMinY(); y < image.getHeight() && bitCounter < sizeBits; y++) {
-                final Color color = new Color(image.getRGB(x, y));
-                final int lsb = color.getRed() & 0x01;
-                bits.set(bitCounter, lsb == 0x01);
-                bitCounter++;
-
-                if(bitCounter == 32) {
-                    final int readMore = ByteBuffer.wrap(bits.toByteArray()).getInt();
-                    sizeBits += readMore * 8 + 12*8; // length bits + IV bits
-                }
-            }
-        }
+     * @return the layout the payload was encoded in
+     * @throws IllegalArgumentException If the header is not valid
+     */
+    protected static Layout decodeLayout(final BufferedImage image) {
+        return Layout.fromByte(decodeHeader(image) & ~SCATTERED);
+    }
 
-        return bits;
+    /**
+     * Decodes the header byte of the steganogram: the layout and the scattered flag
+     *
+     * @param image steganogram
+     * @return the header byte
+     */
+    protected static int decodeHeader(final BufferedImage image) {
+        return new RasterBits(image, Layout.DEFAULT, 0).read(0, 1)[0] & 0xff;
+    }
+
+    /**
+     * Decodes bytes from the steganogram; large ranges are decoded in parallel on the common
+     * fork-join pool.
+     *
+     * @param image  steganogram
+     * @param layout layout of the payload
+     * @param offset index of the first byte to decode
+     * @param length number of bytes to decode
+     * @return the decoded bytes
+     * @throws IllegalArgumentException If the range lies outside of the image's capacity, for
+     *                                  instance because a decoded length is corrupt
+     */
+    protected static byte[] decodeBits(final BufferedImage image, final Layout layout, final int offset,
+                                       final int length) {
+        return decodeBits(image, layout, offset, length, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decodes bytes from the steganogram, in parallel on the given pool.
+     *
+     * @param image  steganogram
+     * @param layout layout of the payload
+     * @param offset index of the first byte to decode
+     * @param length number of bytes to decode
+     * @param pool   The pool the bands are decoded on
+     * @return the decoded bytes
+     */
+    protected static byte[] decodeBits(final BufferedImage image, final Layout layout, final int offset,
+                                       final int length, final ForkJoinPool pool) {
+        return decodeBits(image, layout, null, offset, length, pool);
+    }
+
+    /**
+     * Decodes bytes from a steganogram whose payload visits the pixels in the order of the given
+     * permutation.
+     *
+     * @param image       steganogram
+     * @param layout      layout of the payload
+     * @param permutation The order of the pixels, or {@code null} for row by row
+     * @param offset      index of the first byte to decode
+     * @param length      number of bytes to decode
+     * @param pool        The pool the bands are decoded on
+     * @return the decoded bytes
+     */
+    protected static byte[] decodeBits(final BufferedImage image, final Layout layout,
+                                       final PixelPermutation permutation, final int offset, final int length,
+                                       final ForkJoinPool pool) {
+        return new RasterBits(image, layout, Layout.HEADER_PIXELS, permutation).read(offset, length, pool);
     }
 }
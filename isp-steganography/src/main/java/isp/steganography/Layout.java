@@ -0,0 +1,120 @@
+package isp.steganography;
+
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Which samples of a pixel carry the payload, and how many of their least significant bits.
+ * <p>
+ * The payload bits fill the selected channels of each pixel in the order red, green, blue,
+ * alpha, each channel taking {@link #bitsPerChannel()} bits from its least significant bit up;
+ * pixels follow row by row, or in a keyed order ({@link PixelPermutation}). One red LSB per pixel ({@link #DEFAULT}) gives 1 bit per pixel,
+ * four bits in each of red, green and blue give 12.
+ * <p>
+ * The layout of a steganogram is recorded in a header byte held by the red LSBs of its first
+ * {@link #HEADER_PIXELS} pixels, so the decoder does not need to know it in advance. On grey
+ * images, {@link Channel#RED} stands for the grey sample.
+ */
+public final class Layout {
+    public enum Channel {
+        RED, GREEN, BLUE, ALPHA
+    }
+
+    /**
+     * The original layout: the least significant bit of the red sample.
+     */
+    public static final Layout DEFAULT = new Layout(1, Channel.RED);
+
+    /**
+     * Pixels holding the header byte, one bit each.
+     */
+    public static final int HEADER_PIXELS = 8;
+
+    private final EnumSet<Channel> channels;
+    private final int bitsPerChannel;
+
+    /**
+     * @param bitsPerChannel least significant bits used in each sample, 1 to 4
+     * @param channels       channels that carry the payload
+     */
+    public Layout(final int bitsPerChannel, final Channel... channels) {
+        if (bitsPerChannel < 1 || bitsPerChannel > 4)
+            throw new IllegalArgumentException("Bits per channel must be between 1 and 4");
+        if (channels.length == 0)
+            throw new IllegalArgumentException("At least one channel is required");
+        this.bitsPerChannel = bitsPerChannel;
+        this.channels = EnumSet.noneOf(Channel.class);
+        for (Channel channel : channels)
+            this.channels.add(channel);
+    }
+
+    public Set<Channel> channels() {
+        return EnumSet.copyOf(channels);
+    }
+
+    public int bitsPerChannel() {
+        return bitsPerChannel;
+    }
+
+    public int bitsPerPixel() {
+        return channels.size() * bitsPerChannel;
+    }
+
+    /**
+     * @return number of payload bytes (including any length field, IV or tag) an image of the
+     * given size holds in this layout, after the header
+     */
+    public long capacity(final int width, final int height) {
+        return Math.max(0, ((long) width * height - HEADER_PIXELS) * bitsPerPixel() / 8);
+    }
+
+    public long capacity(final BufferedImage image) {
+        return capacity(image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Header byte: the channel mask (red = bit 0 ... alpha = bit 3) in the low nibble and
+     * {@code bitsPerChannel - 1} in bits 4 and 5. Bits 6 and 7 are zero here; the container may use
+     * them for flags of its own.
+     */
+    int toByte() {
+        int mask = 0;
+        for (Channel channel : channels)
+            mask |= 1 << channel.ordinal();
+        return mask | (bitsPerChannel - 1) << 4;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code b} is not a valid header byte, typically because
+     *                                  the image does not hold a steganogram
+     */
+    static Layout fromByte(final int b) {
+        if ((b & 0xc0) != 0 || (b & 0x0f) == 0)
+            throw new IllegalArgumentException(String.format("Invalid layout header: 0x%02x", b & 0xff));
+        final EnumSet<Channel> channels = EnumSet.noneOf(Channel.class);
+        for (Channel channel : Channel.values())
+            if ((b & 1 << channel.ordinal()) != 0)
+                channels.add(channel);
+        return new Layout(((b >>> 4) & 3) + 1, channels.toArray(new Channel[0]));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof Layout && ((Layout) o).bitsPerChannel == bitsPerChannel
+                && ((Layout) o).channels.equals(channels);
+    }
+
+    @Override
+    public int hashCode() {
+        return toByte();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Channel channel : channels)
+            sb.append(channel.name().charAt(0));
+        return sb.append(bitsPerChannel).toString();
+    }
+}
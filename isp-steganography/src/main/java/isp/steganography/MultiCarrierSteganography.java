@@ -0,0 +1,279 @@
+package isp.steganography;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Hides one payload in a whole directory of cover images.
+ * <p>
+ * The payload is cut into one part per cover, in proportion to the covers' capacities, and every
+ * part becomes an ordinary encrypted steganogram (see
+ * {@link ImageSteganography#encryptAndEncode(byte[], String, String, Key, Layout)}): a scattered
+ * payload of length, nonce and AES-GCM ciphertext. The nonces follow the STREAM construction,
+ * <pre>
+ *   prefix (7 B, random per payload) || sequence number (4 B, big-endian) || last-part flag (1 B)
+ * </pre>
+ * so the decoder puts the parts back in order from the authenticated nonces alone, and detects a
+ * missing, duplicated or foreign carrier as well as a missing last one.
+ * <p>
+ * Carriers are encoded and decoded in parallel on a fork-join pool, each task loading, processing
+ * and saving a single image, so no more images are held in memory than there are threads. The
+ * capacities are computed, and the covers checked against the layout, from the image headers,
+ * without decoding the pixels.
+ */
+public final class MultiCarrierSteganography {
+    public static final int PREFIX_LENGTH = 7;
+    private static final int OVERHEAD = Integer.BYTES + 12 + 16;
+
+    private MultiCarrierSteganography() {
+    }
+
+    /**
+     * Encrypts the payload and spreads it over all PNG images in {@code covers}; the steganograms
+     * are written to {@code out} under the same names.
+     *
+     * @throws IllegalArgumentException if the payload does not fit into the covers, or a cover lacks
+     *                                  a channel of the layout; nothing is written then
+     */
+    public static void encode(final byte[] payload, final Path covers, final Path out, final Key key,
+                              final Layout layout, final ForkJoinPool pool) throws IOException, GeneralSecurityException {
+        final Path[] files = images(covers);
+        final long[] offsets = new long[files.length + 1];
+        for (int i = 0; i < files.length; i++) {
+            final int[] size = dimensions(files[i], layout);
+            offsets[i + 1] = offsets[i] + Math.max(0, layout.capacity(size[0], size[1]) - OVERHEAD);
+        }
+        final long capacity = offsets[files.length];
+        if (payload.length > capacity)
+            throw new IllegalArgumentException(String.format("%d bytes do not fit into the %d carriers (capacity: %d bytes)",
+                    payload.length, files.length, capacity));
+
+        // each carrier takes the same share of its capacity
+        for (int i = 1; i <= files.length; i++)
+            offsets[i] = capacity == 0 ? 0 : offsets[i] * payload.length / capacity;
+
+        final byte[] prefix = new byte[PREFIX_LENGTH];
+        new SecureRandom().nextBytes(prefix);
+        Files.createDirectories(out);
+        run(pool, IntStream.range(0, files.length), i -> {
+            final int offset = (int) offsets[i];
+            encodeCarrier(payload, offset, (int) offsets[i + 1] - offset, nonce(prefix, i, i == files.length - 1),
+                    files[i], out.resolve(files[i].getFileName()), key, layout, pool);
+            return null;
+        });
+    }
+
+    /**
+     * Decodes and decrypts the payload spread over the PNG images in {@code steganograms}.
+     *
+     * @throws AEADBadTagException if a carrier was modified, or carriers are missing, duplicated
+     *                             or belong to another payload
+     */
+    public static byte[] decode(final Path steganograms, final Key key, final ForkJoinPool pool)
+            throws IOException, GeneralSecurityException {
+        final Path[] files = images(steganograms);
+        final Part[] parts = run(pool, IntStream.range(0, files.length), i -> decodeCarrier(files[i], key, pool))
+                .toArray(new Part[0]);
+        if (parts.length == 0)
+            throw new AEADBadTagException("No carriers");
+
+        final Part[] ordered = new Part[parts.length];
+        for (Part part : parts) {
+            if (part.sequence < 0 || part.sequence >= parts.length || ordered[part.sequence] != null
+                    || !Arrays.equals(part.prefix, parts[0].prefix))
+                throw new AEADBadTagException("Carriers are missing, duplicated or belong to another payload");
+            ordered[part.sequence] = part;
+        }
+        for (int i = 0; i < ordered.length; i++)
+            if (ordered[i].last != (i == ordered.length - 1))
+                throw new AEADBadTagException("Carriers are missing, duplicated or belong to another payload");
+
+        final ByteBuffer payload = ByteBuffer.allocate(Arrays.stream(ordered).mapToInt(p -> p.data.length).sum());
+        for (Part part : ordered)
+            payload.put(part.data);
+        return payload.array();
+    }
+
+    private static void encodeCarrier(final byte[] payload, final int offset, final int length, final byte[] nonce,
+                                      final Path cover, final Path out, final Key key, final Layout layout,
+                                      final ForkJoinPool pool) throws IOException, GeneralSecurityException {
+        final BufferedImage image = ImageSteganography.loadImage(cover.toString());
+        final PixelPermutation permutation = ImageSteganography.permutation(key, image);
+
+        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, nonce));
+        ImageSteganography.encryptBits(cipher, payload, offset, length, image, layout, permutation, pool);
+        ImageSteganography.saveImage(out.toString(), image);
+    }
+
+    private static Part decodeCarrier(final Path file, final Key key, final ForkJoinPool pool)
+            throws IOException, GeneralSecurityException {
+        final BufferedImage image = ImageSteganography.loadImage(file.toString());
+        final int header = ImageSteganography.decodeHeader(image);
+        if ((header & ImageSteganography.SCATTERED) == 0)
+            throw new AEADBadTagException("Not a carrier: " + file.getFileName());
+        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        final byte[] data = ImageSteganography.decryptBits(cipher, key, image, pool);
+
+        final ByteBuffer n = ByteBuffer.wrap(cipher.getIV());
+        final byte[] prefix = new byte[PREFIX_LENGTH];
+        n.get(prefix);
+        return new Part(prefix, n.getInt(), n.get() != 0, data);
+    }
+
+    static byte[] nonce(final byte[] prefix, final int sequence, final boolean last) {
+        return ByteBuffer.allocate(12).put(prefix).putInt(sequence).put((byte) (last ? 1 : 0)).array();
+    }
+
+    private static final class Part {
+        final byte[] prefix;
+        final int sequence;
+        final boolean last;
+        final byte[] data;
+
+        Part(final byte[] prefix, final int sequence, final boolean last, final byte[] data) {
+            this.prefix = prefix;
+            this.sequence = sequence;
+            this.last = last;
+            this.data = data;
+        }
+    }
+
+    private interface CarrierTask<T> {
+        T run(int index) throws IOException, GeneralSecurityException;
+    }
+
+    /**
+     * Runs the task for each index in parallel on the pool and collects the results in order,
+     * passing on the first I/O or security exception.
+     */
+    private static <T> List<T> run(final ForkJoinPool pool, final IntStream indices, final CarrierTask<T> task)
+            throws IOException, GeneralSecurityException {
+        try {
+            return pool.submit(() -> indices.parallel().mapToObj(i -> {
+                try {
+                    return task.run(i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            // the pool may wrap the exception of the task in a copy of it
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof GeneralSecurityException)
+                    throw (GeneralSecurityException) cause;
+            }
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the PNG files of the directory, by name
+     */
+    private static Path[] images(final Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().toLowerCase().endsWith(".png"))
+                    .sorted().toArray(Path[]::new);
+        }
+    }
+
+    /**
+     * Checks, from the header only, that the image as {@link CarrierIO#read(Path)} will load it has
+     * all channels of the layout.
+     *
+     * @return width and height of the image
+     * @throws IllegalArgumentException if the image lacks a channel of the layout
+     */
+    private static int[] dimensions(final Path file, final Layout layout) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            final Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext())
+                throw new IOException("Not an image: " + file);
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                // a single pixel of the type the image is loaded as
+                final BufferedImage probe = CarrierIO.supported(reader.getImageTypes(0).next().createBufferedImage(1, 1));
+                try {
+                    new RasterBits(probe, layout, 0);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file.getFileName() + ": " + e.getMessage(), e);
+                }
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Spreads a random payload over the bundled images and reads it back.
+     * Usage: {@code MultiCarrierSteganography [cover directory]} (default: images).
+     */
+    public static void main(String[] args) throws Exception {
+        final Path covers = Path.of(args.length > 0 ? args[0] : "images");
+        final Path out = Files.createTempDirectory("steganograms");
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final Layout layout = new Layout(2, Layout.Channel.RED, Layout.Channel.GREEN, Layout.Channel.BLUE);
+
+        final byte[] payload = new byte[512 * 1024];
+        new Random(42).nextBytes(payload);
+        try {
+            long start = System.nanoTime();
+            encode(payload, covers, out, key, layout, ForkJoinPool.commonPool());
+            System.out.printf("encoded %d KiB into %d carriers in %d ms%n", payload.length / 1024,
+                    images(out).length, (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            final byte[] decoded = decode(out, key, ForkJoinPool.commonPool());
+            System.out.printf("decoded in %d ms, same payload: %b%n", (System.nanoTime() - start) / 1_000_000,
+                    Arrays.equals(payload, decoded));
+
+            // dropping the last carrier must not go unnoticed
+            final Path[] carriers = images(out);
+            Files.delete(carriers[carriers.length - 1]);
+            try {
+                decode(out, key, ForkJoinPool.commonPool());
+                System.out.println("missing carrier not detected");
+            } catch (AEADBadTagException e) {
+                System.out.println("missing carrier detected: " + e.getMessage());
+            }
+        } finally {
+            for (Path file : images(out))
+                Files.delete(file);
+            Files.delete(out);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package isp.steganography;
+
+/**
+ * A keyed pseudorandom permutation of the indices {@code [0, size)}, evaluated one index at a
+ * time, so scattering a payload over an image costs time and memory in proportion to the payload
+ * rather than to the image.
+ * <p>
+ * The permutation is a Feistel network over the smallest number of bits that covers {@code size},
+ * with SipHash-2-4 as the round function; for an odd number of bits the two halves differ by one
+ * bit and swap sizes every round, as in FF1. An index that the network maps outside of the range
+ * is fed through it again until it lands inside (cycle walking); as the network's domain is less
+ * than twice the range, that takes fewer than two passes on average.
+ */
+public final class PixelPermutation {
+    private static final int ROUNDS = 8;
+
+    private final long k0;
+    private final long k1;
+    private final int size;
+    /**
+     * Bits of the high (u) and the low (v) part of an index.
+     */
+    private final int u;
+    private final int v;
+
+    /**
+     * @param key  16-byte key
+     * @param size number of indices
+     */
+    public PixelPermutation(final byte[] key, final int size) {
+        if (key.length != 16)
+            throw new IllegalArgumentException("Key must be 16 bytes");
+        if (size < 0)
+            throw new IllegalArgumentException("Size must not be negative");
+        this.k0 = littleEndian(key, 0);
+        this.k1 = littleEndian(key, 8);
+        this.size = size;
+        final int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(Math.max(0, size - 1L)));
+        this.u = bits / 2;
+        this.v = bits - u;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the position {@code index} is mapped to
+     */
+    public int apply(final int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " outside of [0, " + size + ")");
+        long x = index;
+        do {
+            x = feistel(x);
+        } while (x >= size);
+        return (int) x;
+    }
+
+    private long feistel(final long x) {
+        long a = x >>> v;
+        long b = x & (1L << v) - 1;
+        for (int round = 0; round < ROUNDS; round++) {
+            // a has u bits in even rounds and v bits in odd ones
+            final int m = (round & 1) == 0 ? u : v;
+            final long c = a ^ (sipHash((long) round << 32 | b) & (1L << m) - 1);
+            a = b;
+            b = c;
+        }
+        return a << v | b;
+    }
+
+    /**
+     * SipHash-2-4 of one 8-byte message.
+     */
+    private long sipHash(final long m) {
+        long v0 = k0 ^ 0x736f6d6570736575L;
+        long v1 = k1 ^ 0x646f72616e646f6dL;
+        long v2 = k0 ^ 0x6c7967656e657261L;
+        long v3 = k1 ^ 0x7465646279746573L;
+        final long b = 8L << 56;
+
+        // two compression rounds for the message, two for the final block (length 8), four to finalize
+        v3 ^= m;
+        for (int i = 0; i < 8; i++) {
+            if (i == 2) {
+                v0 ^= m;
+                v3 ^= b;
+            } else if (i == 4) {
+                v0 ^= b;
+                v2 ^= 0xff;
+            }
+            v0 += v1;
+            v1 = Long.rotateLeft(v1, 13) ^ v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3;
+            v3 = Long.rotateLeft(v3, 16) ^ v2;
+            v0 += v3;
+            v3 = Long.rotateLeft(v3, 21) ^ v0;
+            v2 += v1;
+            v1 = Long.rotateLeft(v1, 17) ^ v2;
+            v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    private static long littleEndian(final byte[] b, final int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--)
+            value = value << 8 | (b[offset + i] & 0xff);
+        return value;
+    }
+}
@@ -0,0 +1,394 @@
+package isp.steganography;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The least significant bits of an image's samples, as selected by a {@link Layout}, read and
+ * written straight on the array behind its {@link WritableRaster}, without a
+ * {@code getRGB}/{@code setRGB} call or an object per pixel.
+ * <p>
+ * The bits form one stream starting at a given pixel, which visits the pixels row by row or, with
+ * a {@link PixelPermutation}, in a keyed pseudorandom order; the bits of each byte go into it from
+ * the least to the most significant one. Two raster layouts are supported, which covers what {@code ImageIO}
+ * returns for RGB(A) and grey PNG files: interleaved bytes ({@code TYPE_3BYTE_BGR},
+ * {@code TYPE_4BYTE_ABGR}, {@code TYPE_BYTE_GRAY}) and packed ints ({@code TYPE_INT_RGB},
+ * {@code TYPE_INT_ARGB}). Palette images ({@code TYPE_BYTE_INDEXED}) are not: their samples are
+ * palette indices, whose low bits do not map to small colour changes.
+ * <p>
+ * Large ranges can be processed in parallel: the range is split into bands of consecutive pixels
+ * of the stream (rows, for the most part, unless it is scattered), each a multiple of 8 pixels, so
+ * that every band starts on a byte of the stream and no two bands share a pixel.
+ */
+final class RasterBits {
+    /**
+     * Smallest number of stream bytes worth a separate task.
+     */
+    static final int MIN_PART = 16 * 1024;
+
+    private final byte[] bytes;
+    private final int[] ints;
+    private final int width;
+    /**
+     * Array index of pixel (0, 0).
+     */
+    private final int base;
+    private final int pixelStride;
+    private final int scanlineStride;
+    /**
+     * Per channel of the layout, the offset of its sample from the pixel's index (bytes) or its
+     * position within the packed int (ints).
+     */
+    private final int[] offsets;
+    private final int bits;
+    private final int first;
+    private final PixelPermutation permutation;
+    private final long capacity;
+
+    RasterBits(final BufferedImage image, final Layout layout, final int first) {
+        this(image, layout, first, null);
+    }
+
+    /**
+     * @param layout      samples and bits that carry the stream
+     * @param first       pixel at which the stream starts
+     * @param permutation order in which the stream visits the pixels from {@code first} on, or
+     *                    {@code null} for row by row
+     * @throws IllegalArgumentException if the raster layout is not supported, the image lacks
+     *                                  a channel of the layout or the permutation does not cover
+     *                                  the pixels
+     */
+    RasterBits(final BufferedImage image, final Layout layout, final int first, final PixelPermutation permutation) {
+        final WritableRaster raster = image.getRaster();
+        final SampleModel model = raster.getSampleModel();
+        final DataBuffer buffer = raster.getDataBuffer();
+        this.width = image.getWidth();
+        this.bits = layout.bitsPerChannel();
+        this.first = first;
+        this.permutation = permutation;
+        if (permutation != null && permutation.size() != (long) width * image.getHeight() - first)
+            throw new IllegalArgumentException("The permutation does not cover the pixels of the image");
+        this.capacity = Math.max(0, ((long) width * image.getHeight() - first) * layout.bitsPerPixel() / 8);
+
+        final int[] bands = bands(image.getColorModel(), layout);
+        for (int band : bands)
+            if (band >= model.getNumBands() || model.getSampleSize(band) != 8)
+                throw new IllegalArgumentException("Unsupported image type: " + image.getType());
+        this.offsets = new int[bands.length];
+
+        if (model instanceof ComponentSampleModel && buffer instanceof DataBufferByte && buffer.getNumBanks() == 1) {
+            final ComponentSampleModel component = (ComponentSampleModel) model;
+            this.bytes = ((DataBufferByte) buffer).getData();
+            this.ints = null;
+            this.pixelStride = component.getPixelStride();
+            this.scanlineStride = component.getScanlineStride();
+            for (int i = 0; i < bands.length; i++)
+                offsets[i] = component.getBandOffsets()[bands[i]];
+            this.base = buffer.getOffset()
+                    - raster.getSampleModelTranslateY() * scanlineStride
+                    - raster.getSampleModelTranslateX() * pixelStride;
+        } else if (model instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt) {
+            final SinglePixelPackedSampleModel packed = (SinglePixelPackedSampleModel) model;
+            this.bytes = null;
+            this.ints = ((DataBufferInt) buffer).getData();
+            this.pixelStride = 1;
+            this.scanlineStride = packed.getScanlineStride();
+            for (int i = 0; i < bands.length; i++)
+                offsets[i] = packed.getBitOffsets()[bands[i]];
+            this.base = buffer.getOffset()
+                    - raster.getSampleModelTranslateY() * scanlineStride
+                    - raster.getSampleModelTranslateX();
+        } else {
+            throw new IllegalArgumentException("Unsupported image type: " + image.getType());
+        }
+    }
+
+    /**
+     * Maps the channels of the layout to bands of the raster: the colour components come first,
+     * followed by alpha. A palette image has a single band of palette indices, not colour samples,
+     * so it is rejected.
+     */
+    private static int[] bands(final ColorModel colorModel, final Layout layout) {
+        if (colorModel instanceof IndexColorModel)
+            throw new IllegalArgumentException("Unsupported image type: palette");
+        final int colors = colorModel.getNumColorComponents();
+        final int[] bands = new int[layout.channels().size()];
+        int i = 0;
+        for (Layout.Channel channel : layout.channels()) {
+            if (channel == Layout.Channel.ALPHA && !colorModel.hasAlpha())
+                throw new IllegalArgumentException("The image has no alpha channel");
+            if (channel != Layout.Channel.ALPHA && channel.ordinal() >= colors)
+                throw new IllegalArgumentException("The image has no " + channel.name().toLowerCase() + " channel");
+            bands[i++] = channel == Layout.Channel.ALPHA ? colors : channel.ordinal();
+        }
+        return bands;
+    }
+
+    /**
+     * @return whether the raster of the image has one of the supported layouts
+     */
+    static boolean supports(final BufferedImage image) {
+        try {
+            new RasterBits(image, Layout.DEFAULT, 0);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return number of bytes the stream can hold
+     */
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes {@code length} bytes of {@code src} into the stream, starting at byte {@code position}.
+     */
+    void write(final int position, final byte[] src, final int offset, final int length) {
+        checkRange(position, length);
+        final int channels = offsets.length;
+        final int mask = (1 << bits) - 1;
+        long bit = position * 8L;
+        final long end = bit + length * 8L;
+        long sample = bit / bits;
+        int acc = 0;
+        int accBits = 0;
+        int next = offset;
+
+        // a position need not fall on a sample boundary: the first sample is shared with what precedes it
+        final int skip = (int) (bit % bits);
+        if (skip != 0 && bit < end) {
+            final int n = (int) Math.min(bits - skip, end - bit);
+            acc = src[next++] & 0xff;
+            accBits = 8;
+            update(sample++, (acc & ((1 << n) - 1)) << skip, ((1 << n) - 1) << skip);
+            acc >>>= n;
+            accBits -= n;
+            bit += n;
+        }
+
+        // whole samples, in runs of consecutive pixels
+        final long whole = (end - bit) / bits;
+        int pixel = (int) (sample / channels);
+        int channel = (int) (sample % channels);
+        for (long count = whole; count > 0; ) {
+            final int start = physical(pixel);
+            final int run = run(start);
+            int index = base + start / width * scanlineStride + start % width * pixelStride;
+            if (bytes != null) {
+                for (int k = 0; k < run && count > 0; k++, pixel++, index += pixelStride, channel = 0) {
+                    for (; channel < channels && count > 0; channel++, count--) {
+                        if (accBits < bits) {
+                            acc |= (src[next++] & 0xff) << accBits;
+                            accBits += 8;
+                        }
+                        final int i = index + offsets[channel];
+                        bytes[i] = (byte) ((bytes[i] & ~mask) | (acc & mask));
+                        acc >>>= bits;
+                        accBits -= bits;
+                    }
+                }
+            } else {
+                for (int k = 0; k < run && count > 0; k++, pixel++, index++, channel = 0) {
+                    for (; channel < channels && count > 0; channel++, count--) {
+                        if (accBits < bits) {
+                            acc |= (src[next++] & 0xff) << accBits;
+                            accBits += 8;
+                        }
+                        final int shift = offsets[channel];
+                        ints[index] = (ints[index] & ~(mask << shift)) | ((acc & mask) << shift);
+                        acc >>>= bits;
+                        accBits -= bits;
+                    }
+                }
+            }
+        }
+        sample += whole;
+        bit += whole * bits;
+
+        // and the low bits of a last sample
+        final int rest = (int) (end - bit);
+        if (rest > 0) {
+            if (accBits < rest)
+                acc |= (src[next] & 0xff) << accBits;
+            update(sample, acc & ((1 << rest) - 1), (1 << rest) - 1);
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes from the stream, starting at byte {@code position}, into {@code dst}.
+     */
+    void read(final int position, final byte[] dst, final int offset, final int length) {
+        checkRange(position, length);
+        final int channels = offsets.length;
+        final int mask = (1 << bits) - 1;
+        long bit = position * 8L;
+        final long end = bit + length * 8L;
+        long sample = bit / bits;
+        int acc = 0;
+        int accBits = 0;
+        int next = offset;
+
+        final int skip = (int) (bit % bits);
+        if (skip != 0 && bit < end) {
+            final int n = (int) Math.min(bits - skip, end - bit);
+            acc = (sample(sample++) >>> skip) & ((1 << n) - 1);
+            accBits = n;
+            bit += n;
+        }
+
+        final long whole = (end - bit) / bits;
+        int pixel = (int) (sample / channels);
+        int channel = (int) (sample % channels);
+        for (long count = whole; count > 0; ) {
+            final int start = physical(pixel);
+            final int run = run(start);
+            int index = base + start / width * scanlineStride + start % width * pixelStride;
+            for (int k = 0; k < run && count > 0; k++, pixel++, index += pixelStride, channel = 0) {
+                for (; channel < channels && count > 0; channel++, count--) {
+                    final int value = bytes != null ? bytes[index + offsets[channel]] : ints[index] >>> offsets[channel];
+                    acc |= (value & mask) << accBits;
+                    accBits += bits;
+                    if (accBits >= 8) {
+                        dst[next++] = (byte) acc;
+                        acc >>>= 8;
+                        accBits -= 8;
+                    }
+                }
+            }
+        }
+        sample += whole;
+        bit += whole * bits;
+
+        final int rest = (int) (end - bit);
+        if (rest > 0) {
+            acc |= (sample(sample) & ((1 << rest) - 1)) << accBits;
+            accBits += rest;
+        }
+        while (accBits >= 8) {
+            dst[next++] = (byte) acc;
+            acc >>>= 8;
+            accBits -= 8;
+        }
+    }
+
+    /**
+     * Like {@link #write(int, byte[], int, int)}, with bands of the range written in parallel on
+     * {@code pool}.
+     */
+    void write(final int position, final byte[] src, final int offset, final int length, final ForkJoinPool pool) {
+        checkRange(position, length);
+        final int[] bounds = split(position, length, pool.getParallelism());
+        if (bounds.length == 2) {
+            write(position, src, offset, length);
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, bounds.length - 1).parallel().forEach(i ->
+                write(bounds[i], src, offset + bounds[i] - position, bounds[i + 1] - bounds[i]))).join();
+    }
+
+    /**
+     * Like {@link #read(int, byte[], int, int)}, with bands of the range read in parallel on
+     * {@code pool}.
+     */
+    void read(final int position, final byte[] dst, final int offset, final int length, final ForkJoinPool pool) {
+        checkRange(position, length);
+        final int[] bounds = split(position, length, pool.getParallelism());
+        if (bounds.length == 2) {
+            read(position, dst, offset, length);
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, bounds.length - 1).parallel().forEach(i ->
+                read(bounds[i], dst, offset + bounds[i] - position, bounds[i + 1] - bounds[i]))).join();
+    }
+
+    /**
+     * @return boundaries of the bands: {@code position}, the inner boundaries, {@code position + length}
+     */
+    private int[] split(final int position, final int length, final int parallelism) {
+        final int parts = Math.max(1, Math.min(parallelism * 4, length / MIN_PART));
+        // 8 pixels take bitsPerPixel bytes of the stream; inner boundaries fall on such groups
+        final int grain = offsets.length * bits;
+        final long part = ((long) length / parts + grain - 1) / grain * grain;
+        final int[] bounds = new int[parts + 1];
+        bounds[0] = position;
+        for (int i = 1; i < parts; i++)
+            bounds[i] = (int) Math.min(position + (long) length, (position + i * part + grain - 1) / grain * grain);
+        bounds[parts] = position + length;
+        return bounds;
+    }
+
+    byte[] read(final int position, final int length, final ForkJoinPool pool) {
+        checkRange(position, length);
+        final byte[] dst = new byte[length];
+        read(position, dst, 0, length, pool);
+        return dst;
+    }
+
+    byte[] read(final int position, final int length) {
+        checkRange(position, length);
+        final byte[] dst = new byte[length];
+        read(position, dst, 0, length);
+        return dst;
+    }
+
+    /**
+     * @return the image pixel (row-major index) that holds the given pixel of the stream
+     */
+    private int physical(final int pixel) {
+        return first + (permutation == null ? pixel : permutation.apply(pixel));
+    }
+
+    /**
+     * @return number of pixels of the stream that follow each other in the image from the given
+     * image pixel on: the rest of its row, or just the pixel itself when the stream is scattered
+     */
+    private int run(final int physical) {
+        return permutation == null ? width - physical % width : 1;
+    }
+
+    /**
+     * Replaces the bits of {@code mask} in the given sample of the stream.
+     */
+    private void update(final long sample, final int value, final int mask) {
+        final int pixel = physical((int) (sample / offsets.length));
+        final int index = base + pixel / width * scanlineStride + pixel % width * pixelStride;
+        final int channel = (int) (sample % offsets.length);
+        if (bytes != null) {
+            final int i = index + offsets[channel];
+            bytes[i] = (byte) ((bytes[i] & ~mask) | value);
+        } else {
+            final int shift = offsets[channel];
+            ints[index] = (ints[index] & ~(mask << shift)) | (value << shift);
+        }
+    }
+
+    /**
+     * @return the given sample of the stream, in the low bits
+     */
+    private int sample(final long sample) {
+        final int pixel = physical((int) (sample / offsets.length));
+        final int index = base + pixel / width * scanlineStride + pixel % width * pixelStride;
+        final int channel = (int) (sample % offsets.length);
+        return bytes != null ? bytes[index + offsets[channel]] : ints[index] >>> offsets[channel];
+    }
+
+    private void checkRange(final int position, final int length) {
+        if (position < 0 || length < 0 || (long) position + length > capacity)
+            throw new IllegalArgumentException(String.format(
+                    "%d bytes at offset %d do not fit into the carrier (capacity: %d bytes)",
+                    length, position, capacity));
+    }
+}
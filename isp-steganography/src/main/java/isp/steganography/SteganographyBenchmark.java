@@ -0,0 +1,128 @@
+package isp.steganography;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Capacity and in-memory encode/decode throughput of each {@link Layout} on the bundled carriers,
+ * how encoding and decoding scale with threads on a generated multi-megapixel carrier, and what
+ * scattering a payload over that carrier costs.
+ * Every run fills the carrier to capacity and checks that the payload decodes unchanged.
+ * Usage: {@code SteganographyBenchmark [image directory] [megapixels]} (defaults: images, 24).
+ */
+public class SteganographyBenchmark {
+    private static final Layout[] LAYOUTS = {
+            Layout.DEFAULT,
+            new Layout(1, Layout.Channel.RED, Layout.Channel.GREEN, Layout.Channel.BLUE),
+            new Layout(2, Layout.Channel.RED, Layout.Channel.GREEN, Layout.Channel.BLUE),
+            new Layout(3, Layout.Channel.RED, Layout.Channel.GREEN, Layout.Channel.BLUE),
+            new Layout(4, Layout.Channel.RED, Layout.Channel.GREEN, Layout.Channel.BLUE),
+            new Layout(4, Layout.Channel.RED, Layout.Channel.GREEN, Layout.Channel.BLUE, Layout.Channel.ALPHA),
+    };
+
+    public static void main(String[] args) throws Exception {
+        final File[] files = new File(args.length > 0 ? args[0] : "images")
+                .listFiles((dir, name) -> name.endsWith(".png") && !name.startsWith("steganogram"));
+        if (files == null)
+            throw new IllegalArgumentException("Not a directory");
+        Arrays.sort(files);
+
+        final int megapixels = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+        final Random random = new Random(42);
+        System.out.printf("%-18s %-9s %-7s %10s %6s %14s %14s%n",
+                "image", "size", "layout", "capacity", "ratio", "encode", "decode");
+        for (File file : files) {
+            final BufferedImage image = ImageSteganography.loadImage(file.getPath());
+            final long base = ImageSteganography.capacity(image, Layout.DEFAULT);
+            for (Layout layout : LAYOUTS) {
+                final long capacity;
+                try {
+                    capacity = ImageSteganography.capacity(image, layout);
+                } catch (IllegalArgumentException e) {
+                    continue; // no alpha channel
+                }
+
+                final byte[] payload = new byte[(int) capacity + Integer.BYTES];
+                random.nextBytes(payload);
+                final double[] speed = measure(image, layout, payload, ForkJoinPool.commonPool());
+                System.out.printf("%-18s %-9s %-7s %10d %5.1fx %8.1f MiB/s %8.1f MiB/s%n",
+                        file.getName(), image.getWidth() + "x" + image.getHeight(), layout, capacity,
+                        (double) capacity / base, speed[0], speed[1]);
+            }
+        }
+
+        final int width = (int) Math.sqrt(megapixels * 1_000_000 * 4 / 3.0);
+        final BufferedImage large = new BufferedImage(width, width * 3 / 4, BufferedImage.TYPE_3BYTE_BGR);
+        random.nextBytes(((DataBufferByte) large.getRaster().getDataBuffer()).getData());
+        final int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%n%dx%d carrier, %d cores%n", large.getWidth(), large.getHeight(), cores);
+        for (Layout layout : new Layout[]{LAYOUTS[0], LAYOUTS[4]}) {
+            final byte[] payload = new byte[(int) ImageSteganography.capacity(large, layout) + Integer.BYTES];
+            random.nextBytes(payload);
+            // 1, 2, 4, ... and finally all cores
+            for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(threads * 2, cores)) {
+                final ForkJoinPool pool = new ForkJoinPool(threads);
+                final double[] speed = measure(large, layout, payload, pool);
+                pool.shutdown();
+                System.out.printf("%-7s %2d threads  %8.1f MiB/s %8.1f MiB/s%n", layout, threads, speed[0], speed[1]);
+            }
+        }
+
+        // scattering costs time per payload pixel, not per image pixel
+        final PixelPermutation permutation = new PixelPermutation(new byte[16],
+                large.getWidth() * large.getHeight() - Layout.HEADER_PIXELS);
+        for (int size = 1024; size <= 1024 * 1024; size *= 32) {
+            final byte[] payload = new byte[size];
+            random.nextBytes(payload);
+            long start = System.nanoTime();
+            ImageSteganography.encodeBits(payload, large, Layout.DEFAULT, permutation, ForkJoinPool.commonPool());
+            final double encode = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            final byte[] decoded = ImageSteganography.decodeBits(large, Layout.DEFAULT, permutation, 0, size,
+                    ForkJoinPool.commonPool());
+            final double decode = (System.nanoTime() - start) / 1e6;
+            if (!Arrays.equals(payload, decoded))
+                throw new IllegalStateException("Round trip failed: scattered");
+            System.out.printf("scattered %7d bytes: encode %8.2f ms, decode %8.2f ms%n", size, encode, decode);
+        }
+    }
+
+    /**
+     * @return encode and decode throughput in MiB/s, after checking the round trip
+     */
+    private static double[] measure(final BufferedImage image, final Layout layout, final byte[] payload,
+                                    final ForkJoinPool pool) {
+        double encode = 0, decode = 0;
+        byte[] decoded = null;
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            int iterations = 0;
+            long start = System.nanoTime();
+            do {
+                ImageSteganography.encodeBits(payload, image, layout, pool);
+                iterations++;
+            } while (System.nanoTime() - start < 200_000_000L);
+            encode = mibPerSecond((long) payload.length * iterations, start);
+
+            iterations = 0;
+            start = System.nanoTime();
+            do {
+                decoded = ImageSteganography.decodeBits(image, ImageSteganography.decodeLayout(image),
+                        0, payload.length, pool);
+                iterations++;
+            } while (System.nanoTime() - start < 200_000_000L);
+            decode = mibPerSecond((long) payload.length * iterations, start);
+        }
+        if (!Arrays.equals(payload, decoded))
+            throw new IllegalStateException("Round trip failed: " + layout);
+        return new double[]{encode, decode};
+    }
+
+    private static double mibPerSecond(final long bytes, final long start) {
+        return bytes / 1048576.0 / ((System.nanoTime() - start) / 1e9);
+    }
+}